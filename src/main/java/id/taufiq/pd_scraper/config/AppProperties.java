@@ -1,11 +1,19 @@
 package id.taufiq.pd_scraper.config;
 
+import id.taufiq.pd_scraper.model.AssetClass;
 import jakarta.validation.constraints.NotBlank;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+
 @Getter
 @Setter
 @Component
@@ -15,7 +23,245 @@ public class AppProperties {
     private String pasardanaUsername;
     @NotBlank
     private String pasardanaPassword;
+    /**
+     * Scheme and host the Pasardana API paths are resolved against.
+     */
+    @NotBlank
+    private String pasardanaBaseUrl = "https://pasardana.id";
     @NotBlank
     private String syncCron;
+    /**
+     * Which scrapers run once after the application is ready, next to the cron schedule.
+     */
+    private StartupSync startupSync = StartupSync.BOND;
+    /**
+     * Platform threads of the scrape executor, raised to the sum of {@link #scrapeConcurrency} when lower.
+     */
     private int scrapePoolSize = 20;
+    /**
+     * Run scrape tasks on virtual threads when the runtime supports them (Java 21+).
+     */
+    private boolean scrapeVirtualThreads = true;
+    /**
+     * Max in-flight scrape tasks per asset class, falls back to {@link #scrapePoolSize}.
+     */
+    private Map<AssetClass, Integer> scrapeConcurrency = new EnumMap<>(AssetClass.class);
+    /**
+     * Batches smaller than this are written with plain inserts instead of COPY.
+     */
+    private int copyMinRows = 1000;
+    private int writeBatchSize = 500;
+    /**
+     * Number of parsed rows handed to the writer at a time while a response is streamed.
+     */
+    private int fetchChunkSize = 5000;
+    /**
+     * Size of the date windows a missing history range is split into.
+     */
+    private Period backfillWindow = Period.ofYears(1);
+    /**
+     * Replaces the surrogate uuid id of the daily tables with a (code, date) primary key on startup.
+     */
+    private boolean naturalKeys = false;
+    /**
+     * Column types of returns, yields and durations in the daily tables, {@code compact} stores them as float8.
+     */
+    private StorageProfile storageProfile = StorageProfile.NUMERIC;
+    private Http http = new Http();
+    private RateLimit rateLimit = new RateLimit();
+    private Cluster cluster = new Cluster();
+    private Job job = new Job();
+    private Writer writer = new Writer();
+    private Partitioning partitioning = new Partitioning();
+    private HistoryCache historyCache = new HistoryCache();
+    private Snapshot snapshot = new Snapshot();
+    private Metrics metrics = new Metrics();
+    private Changes changes = new Changes();
+
+    public int getScrapeConcurrency(AssetClass assetClass) {
+        Integer concurrency = scrapeConcurrency.get(assetClass);
+        return concurrency != null && concurrency > 0 ? concurrency : scrapePoolSize;
+    }
+
+    @Getter
+    @Setter
+    public static class Http {
+        /**
+         * {@code apache} for the pooled HTTP/1.1 client, {@code jdk} for the JDK client with HTTP/2.
+         */
+        private HttpClientType client = HttpClientType.APACHE;
+        private int maxTotal = 64;
+        private int maxPerRoute = 64;
+        private Duration connectTimeout = Duration.ofSeconds(10);
+        private Duration responseTimeout = Duration.ofSeconds(120);
+        private Duration connectionRequestTimeout = Duration.ofSeconds(30);
+        private Duration keepAlive = Duration.ofMinutes(1);
+        private Duration timeToLive = Duration.ofMinutes(10);
+        private Duration idleEviction = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class RateLimit {
+        /**
+         * Request rate shared by all scrapers, 0 disables rate limiting.
+         */
+        private double requestsPerSecond = 20;
+        private int burst = 20;
+        private int initialConcurrency = 8;
+        private int minConcurrency = 1;
+        private int maxConcurrency = 64;
+        /**
+         * Responses slower than this are treated as a sign of overload.
+         */
+        private Duration latencyThreshold = Duration.ofSeconds(5);
+        private int maxAttempts = 4;
+        private Duration initialBackoff = Duration.ofMillis(500);
+        private Duration maxBackoff = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Cluster {
+
+        private static final String BOOT_ID = UUID.randomUUID().toString();
+
+        /**
+         * Coordinate syncs across replicas through the database. When disabled every node syncs everything.
+         */
+        private boolean enabled = false;
+        private String nodeId = System.getenv().getOrDefault("HOSTNAME", UUID.randomUUID().toString());
+        private int shardCount = 16;
+        private Duration leaseTtl = Duration.ofMinutes(2);
+        private int maxShardAttempts = 3;
+        /**
+         * How long other nodes wait for the coordinator to finish master data and publish shards.
+         */
+        private Duration coordinatorTimeout = Duration.ofMinutes(30);
+
+        /**
+         * The node id suffixed with an id drawn at startup, which owns leases and job locks. A node restarted
+         * under the same hostname does not renew what its previous incarnation held.
+         */
+        public String getInstanceId() {
+            return nodeId + "/" + BOOT_ID;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Job {
+        private Duration lease = Duration.ofMinutes(10);
+        private int maxAttempts = 5;
+        /**
+         * Delay before the first retry of a failed job, doubled on each further attempt.
+         */
+        private Duration retryInterval = Duration.ofMinutes(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Writer {
+        private int threads = 2;
+        /**
+         * Fetched chunks that may wait for a writer before fetchers block.
+         */
+        private int queueCapacity = 32;
+        /**
+         * Rows a writer coalesces from queued chunks into one transaction.
+         */
+        private int batchRows = 10000;
+    }
+
+    @Getter
+    @Setter
+    public static class Partitioning {
+        /**
+         * Range partitions the daily tables by date, requires {@code app.natural-keys}.
+         */
+        private boolean enabled = false;
+        private PartitionInterval interval = PartitionInterval.YEAR;
+        /**
+         * Partitions created ahead of the current one.
+         */
+        private int premake = 2;
+        /**
+         * First partition of a table that is still empty when it is partitioned, older dates share one partition.
+         */
+        private LocalDate startDate = LocalDate.of(1995, 1, 1);
+    }
+
+    @Getter
+    @Setter
+    public static class HistoryCache {
+        /**
+         * Rows the read API keeps in memory across all cached windows.
+         */
+        private long maxRows = 500_000;
+        /**
+         * How long a cached window is served, which bounds how stale it gets when another node writes its code.
+         */
+        private Duration ttl = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Snapshot {
+        /**
+         * Keeps a memory-mapped columnar copy of the stock daily history, refreshed after every sync.
+         */
+        private boolean enabled = false;
+        private String directory = "snapshot";
+    }
+
+    @Getter
+    @Setter
+    public static class Metrics {
+        /**
+         * Computes returns, volatility and moving averages of new stock daily rows after every sync.
+         */
+        private boolean enabled = false;
+        /**
+         * Threads computing metrics, 0 uses one per processor.
+         */
+        private int parallelism = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class Changes {
+        /**
+         * Where the changes of committed daily writes are published outside the application.
+         */
+        private ChangeSinkType sink = ChangeSinkType.NONE;
+        private String channel = "daily_changes";
+        private String file = "changes.log";
+    }
+
+    public enum ChangeSinkType {
+        NONE,
+        NOTIFY,
+        FILE
+    }
+
+    public enum PartitionInterval {
+        YEAR,
+        MONTH
+    }
+
+    public enum StorageProfile {
+        NUMERIC,
+        COMPACT
+    }
+
+    public enum StartupSync {
+        NONE,
+        BOND,
+        ALL
+    }
+
+    public enum HttpClientType {
+        APACHE,
+        JDK
+    }
 }
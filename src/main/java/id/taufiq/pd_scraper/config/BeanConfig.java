@@ -1,18 +1,40 @@
 package id.taufiq.pd_scraper.config;
 
+import id.taufiq.pd_scraper.model.AssetClass;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestClient;
 
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
 
+@Slf4j
 @Configuration
 public class BeanConfig {
 
@@ -22,20 +44,124 @@ public class BeanConfig {
         this.appProperties = appProperties;
     }
 
-    @Bean
-    public RestClient restClient() {
-        HttpClient httpClient = HttpClientBuilder.create().build();
-        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "app.http.client", havingValue = "apache", matchIfMissing = true)
+    public PoolingHttpClientConnectionManager pasardanaConnectionManager() {
+        AppProperties.Http http = appProperties.getHttp();
+
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(http.getConnectTimeout()))
+                .setSocketTimeout(Timeout.of(http.getResponseTimeout()))
+                .setTimeToLive(TimeValue.of(http.getTimeToLive()))
+                .setValidateAfterInactivity(TimeValue.of(http.getIdleEviction()))
+                .build();
 
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(http.getMaxTotal())
+                .setMaxConnPerRoute(http.getMaxPerRoute())
+                .setDefaultConnectionConfig(connectionConfig)
+                .build();
+    }
+
+    @Bean
+    public RestClient restClient(ObjectProvider<PoolingHttpClientConnectionManager> connectionManager) {
         String credentials = appProperties.getPasardanaUsername() + ":" + appProperties.getPasardanaPassword();
         String encodedAuth = Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
         String authHeader = "Basic " + encodedAuth;
 
-        return RestClient.builder()
+        RestClient.Builder builder = RestClient.builder()
+                .baseUrl(appProperties.getPasardanaBaseUrl())
                 .defaultHeader(HttpHeaders.ACCEPT_ENCODING, "gzip")
-                .defaultHeader(HttpHeaders.HOST, "pasardana.id")
-                .defaultHeader(HttpHeaders.AUTHORIZATION, authHeader)
-                .requestFactory(factory)
+                .defaultHeader(HttpHeaders.AUTHORIZATION, authHeader);
+
+        if (appProperties.getHttp().getClient() == AppProperties.HttpClientType.JDK) {
+            // the JDK client manages the Host header itself and does not decompress responses
+            return builder
+                    .requestFactory(jdkRequestFactory())
+                    .requestInterceptor(new GzipResponseInterceptor())
+                    .build();
+        }
+
+        return builder
+                .defaultHeader(HttpHeaders.HOST, URI.create(appProperties.getPasardanaBaseUrl()).getAuthority())
+                .requestFactory(apacheRequestFactory(connectionManager.getObject()))
+                .build();
+    }
+
+    @Bean
+    public MeterBinder pasardanaConnectionPoolMetrics(ObjectProvider<PoolingHttpClientConnectionManager> connectionManager) {
+        return registry -> connectionManager.ifAvailable(pool -> {
+            registerPoolGauge(registry, pool, "leased", PoolStats::getLeased);
+            registerPoolGauge(registry, pool, "available", PoolStats::getAvailable);
+            registerPoolGauge(registry, pool, "pending", PoolStats::getPending);
+            registerPoolGauge(registry, pool, "max", PoolStats::getMax);
+        });
+    }
+
+    private ClientHttpRequestFactory apacheRequestFactory(PoolingHttpClientConnectionManager connectionManager) {
+        AppProperties.Http http = appProperties.getHttp();
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.of(http.getConnectionRequestTimeout()))
+                .setResponseTimeout(Timeout.of(http.getResponseTimeout()))
+                .setConnectionKeepAlive(TimeValue.of(http.getKeepAlive()))
+                .build();
+
+        HttpClient httpClient = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(http.getIdleEviction()))
+                .build();
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+    private ClientHttpRequestFactory jdkRequestFactory() {
+        AppProperties.Http http = appProperties.getHttp();
+
+        java.net.http.HttpClient httpClient = java.net.http.HttpClient.newBuilder()
+                .version(java.net.http.HttpClient.Version.HTTP_2)
+                .connectTimeout(http.getConnectTimeout())
+                .followRedirects(java.net.http.HttpClient.Redirect.NORMAL)
                 .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient);
+        factory.setReadTimeout(http.getResponseTimeout());
+        return factory;
+    }
+
+    private static void registerPoolGauge(MeterRegistry registry,
+            PoolingHttpClientConnectionManager pool, String state, ToDoubleFunction<PoolStats> value) {
+        Gauge.builder("pasardana.http.pool.connections", pool, it -> value.applyAsDouble(it.getTotalStats()))
+                .tag("state", state)
+                .description("Pasardana HTTP connection pool connections by state")
+                .register(registry);
+    }
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService scrapeExecutorService() {
+        if (appProperties.isScrapeVirtualThreads() && Runtime.version().feature() >= 21) {
+            try {
+                ExecutorService executorService = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+                log.info("Using virtual threads for scrape executor");
+                return executorService;
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads unavailable, falling back to platform threads", e);
+            }
+        }
+
+        // every asset class may run its full concurrency at once, a smaller pool would silently cap it
+        int concurrency = Arrays.stream(AssetClass.values()).mapToInt(appProperties::getScrapeConcurrency).sum();
+        int poolSize = Math.max(Math.max(1, appProperties.getScrapePoolSize()), concurrency);
+        log.info("Using {} platform threads for scrape executor", poolSize);
+
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "scrape-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(poolSize, threadFactory);
     }
 }
@@ -0,0 +1,77 @@
+package id.taufiq.pd_scraper.controller;
+
+import id.taufiq.pd_scraper.model.entity.BondDaily;
+import id.taufiq.pd_scraper.model.entity.FundAum;
+import id.taufiq.pd_scraper.model.entity.FundDaily;
+import id.taufiq.pd_scraper.model.entity.FundUnit;
+import id.taufiq.pd_scraper.model.entity.StockDaily;
+import id.taufiq.pd_scraper.service.HistoryCache;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Read API over the synced daily history. Date ranges are inclusive and default to the last year.
+ */
+@RestController
+@RequestMapping("/api")
+public class HistoryController {
+
+    private final HistoryCache historyCache;
+
+    public HistoryController(HistoryCache historyCache) {
+        this.historyCache = historyCache;
+    }
+
+    @GetMapping("/stocks/{code}/daily")
+    public List<StockDaily> findStockDaily(@PathVariable String code,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return find(StockDaily.class, code, from, to);
+    }
+
+    @GetMapping("/bonds/{code}/daily")
+    public List<BondDaily> findBondDaily(@PathVariable String code,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return find(BondDaily.class, code, from, to);
+    }
+
+    @GetMapping("/funds/{fundId}/nav")
+    public List<FundDaily> findFundNav(@PathVariable Integer fundId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return find(FundDaily.class, fundId, from, to);
+    }
+
+    @GetMapping("/funds/{fundId}/aum")
+    public List<FundAum> findFundAum(@PathVariable Integer fundId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return find(FundAum.class, fundId, from, to);
+    }
+
+    @GetMapping("/funds/{fundId}/unit")
+    public List<FundUnit> findFundUnit(@PathVariable Integer fundId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return find(FundUnit.class, fundId, from, to);
+    }
+
+    private <T> List<T> find(Class<T> type, Object key, LocalDate from, LocalDate to) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusYears(1);
+        if (start.isAfter(end)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        }
+        return historyCache.findDaily(type, key, start, end);
+    }
+}
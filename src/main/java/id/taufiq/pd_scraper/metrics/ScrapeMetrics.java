@@ -0,0 +1,97 @@
+package id.taufiq.pd_scraper.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters for each scrape stage, from the HTTP request down to the database write.
+ */
+@Slf4j
+@Component
+public class ScrapeMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public ScrapeMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void recordStage(String stage, LocalDateTime startTime) {
+        Duration duration = Duration.between(startTime, LocalDateTime.now());
+        Timer.builder("scrape.stage")
+                .description("Time spent per scrape stage")
+                .tag("stage", stage)
+                .register(meterRegistry)
+                .record(duration);
+
+        long minutes = duration.toMinutes();
+        long seconds = duration.minusMinutes(minutes).getSeconds();
+        log.info("Finished scraping {} with time spent: {} minutes {} seconds", stage, minutes, seconds);
+    }
+
+    public void recordRequest(String endpoint, String outcome, long nanos) {
+        Timer.builder("pasardana.http.requests")
+                .description("Pasardana response latency until headers are received")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordResponse(String endpoint, int rows, long bytes, long parseNanos) {
+        DistributionSummary.builder("pasardana.http.received")
+                .description("Decoded Pasardana response body size")
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(bytes);
+        Timer.builder("pasardana.json.parse")
+                .description("Time spent parsing Pasardana responses")
+                .tag("endpoint", endpoint)
+                .register(meterRegistry)
+                .record(parseNanos, TimeUnit.NANOSECONDS);
+        counter("scrape.rows.parsed", "endpoint", endpoint).increment(rows);
+    }
+
+    public void recordDeduplicated(String series, int rows) {
+        if (rows > 0) {
+            counter("scrape.rows.deduplicated", "series", series).increment(rows);
+        }
+    }
+
+    public void recordWrite(String table, String method, int rows, long nanos) {
+        Timer.builder("scrape.db.write")
+                .description("Latency of daily table batch writes")
+                .tag("table", table)
+                .tag("method", method)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        counter("scrape.rows.written", "table", table).increment(rows);
+    }
+
+    /**
+     * Counts a failed scrape per series only, a per code tag would create a time series for every symbol.
+     */
+    public void recordFailure(String series) {
+        Counter.builder("scrape.failures")
+                .description("Failed scrapes per series")
+                .tag("series", series)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Counter counter(String name, String tagKey, String tagValue) {
+        return Counter.builder(name).tag(tagKey, tagValue).register(meterRegistry);
+    }
+}
@@ -0,0 +1,7 @@
+package id.taufiq.pd_scraper.model;
+
+public enum AssetClass {
+    STOCK,
+    BOND,
+    FUND
+}
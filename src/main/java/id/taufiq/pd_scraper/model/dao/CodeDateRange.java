@@ -0,0 +1,16 @@
+package id.taufiq.pd_scraper.model.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CodeDateRange {
+    private String code;
+    private LocalDate startDate;
+    private LocalDate endDate;
+}
@@ -0,0 +1,16 @@
+package id.taufiq.pd_scraper.model.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FetchCache {
+    private String endpoint;
+    private String etag;
+    private String lastModified;
+    private String contentHash;
+    private String contextHash;
+}
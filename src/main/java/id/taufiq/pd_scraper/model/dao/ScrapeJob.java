@@ -0,0 +1,19 @@
+package id.taufiq.pd_scraper.model.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScrapeJob {
+    private Long id;
+    private String series;
+    private String key;
+    private LocalDate startDate;
+    private LocalDate endDate;
+    private Integer attempts;
+}
@@ -0,0 +1,20 @@
+package id.taufiq.pd_scraper.model.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UpsertCount {
+    private int inserted;
+    private int updated;
+    private int unchanged;
+
+    public void add(UpsertCount other) {
+        inserted += other.inserted;
+        updated += other.updated;
+        unchanged += other.unchanged;
+    }
+}
@@ -12,7 +12,6 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.UUID;
 
 @Data
 @Table("bond_daily")
@@ -22,7 +21,7 @@ public class BondDaily {
 
     @Id
     @JsonProperty("Id")
-    private String id = UUID.randomUUID().toString();
+    private String id;
 
     @Column("bond_code")
     @JsonProperty("BondCode")
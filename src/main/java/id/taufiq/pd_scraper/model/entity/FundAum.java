@@ -8,7 +8,6 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.relational.core.mapping.Table;
 
 import java.time.LocalDate;
-import java.util.UUID;
 
 @Data
 @NoArgsConstructor
@@ -16,7 +15,7 @@ import java.util.UUID;
 @Table("fund_aum")
 public class FundAum {
     @Id
-    private String id = UUID.randomUUID().toString();
+    private String id;
     @JsonProperty("FundId")
     private Integer fundId;
     @JsonProperty("Value")
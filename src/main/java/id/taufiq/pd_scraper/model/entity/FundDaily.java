@@ -9,7 +9,6 @@ import org.springframework.data.relational.core.mapping.Table;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.UUID;
 
 @Data
 @NoArgsConstructor
@@ -18,7 +17,7 @@ import java.util.UUID;
 public class FundDaily {
     @Id
     @JsonProperty("Id")
-    private String id = UUID.randomUUID().toString();
+    private String id;
     @JsonProperty("FundId")
     private Short fundId;
     @JsonProperty("Value")
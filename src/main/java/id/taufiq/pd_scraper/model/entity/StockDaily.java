@@ -3,17 +3,17 @@ package id.taufiq.pd_scraper.model.entity;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.InsertOnlyProperty;
 import org.springframework.data.relational.core.mapping.Table;
 
 import java.time.LocalDate;
-import java.util.UUID;
 
 @Data
 @Table("stock_daily")
 public class StockDaily {
     @Id
     @JsonProperty("Id")
-    private String id = UUID.randomUUID().toString();
+    private String id;
 
     @JsonProperty("Code")
     private String code;
@@ -39,5 +39,6 @@ public class StockDaily {
     @JsonProperty("Date")
     private LocalDate date;
 
+    @InsertOnlyProperty
     private LocalDate createdAt;
 }
@@ -0,0 +1,24 @@
+package id.taufiq.pd_scraper.model.entity;
+
+import lombok.Data;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDate;
+
+/**
+ * Metrics derived from the closing prices of a stock, returns are fractions and windows count trading days.
+ */
+@Data
+@Table("stock_metric")
+public class StockMetric {
+    private String code;
+    private LocalDate date;
+    private Double dailyReturn;
+    private Double weeklyReturn;
+    private Double monthlyReturn;
+    private Double volatility20;
+    private Double sma20;
+    private Double sma50;
+    private Double ema12;
+    private Double ema26;
+}
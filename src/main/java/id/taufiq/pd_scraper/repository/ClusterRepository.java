@@ -0,0 +1,102 @@
+package id.taufiq.pd_scraper.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+
+@Repository
+public class ClusterRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ClusterRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Returns true when this node created the run and therefore coordinates it.
+     */
+    public boolean tryCreateRun(String syncName, String runId, String nodeId, Duration leaseTtl) {
+        String query = "insert into sync_run (sync_name, run_id, coordinator, coordinator_until, created_at)"
+                + " values (?, ?, ?, now() + make_interval(secs => ?), now()) on conflict do nothing";
+        return jdbcTemplate.update(query, syncName, runId, nodeId, leaseTtl.toSeconds()) > 0;
+    }
+
+    /**
+     * Returns true when this node took over a run whose coordinator let its lease expire before publishing shards.
+     */
+    public boolean tryTakeOverRun(String syncName, String runId, String nodeId, Duration leaseTtl) {
+        String query = "update sync_run set coordinator = ?, coordinator_until = now() + make_interval(secs => ?)"
+                + " where sync_name = ? and run_id = ? and shard_count is null"
+                + " and (coordinator_until is null or coordinator_until < now())";
+        return jdbcTemplate.update(query, nodeId, leaseTtl.toSeconds(), syncName, runId) > 0;
+    }
+
+    public void createShards(String syncName, String runId, int shardCount) {
+        String query = "insert into sync_shard (sync_name, run_id, shard, status, attempts) values (?, ?, ?, 'PENDING', 0)"
+                + " on conflict do nothing";
+        List<Object[]> args = IntStream.range(0, shardCount)
+                .mapToObj(it -> new Object[]{syncName, runId, it})
+                .toList();
+        jdbcTemplate.batchUpdate(query, args);
+        jdbcTemplate.update("update sync_run set shard_count = ? where sync_name = ? and run_id = ?",
+                shardCount, syncName, runId);
+    }
+
+    public Integer findShardCount(String syncName, String runId) {
+        String query = "select shard_count from sync_run where sync_name = ? and run_id = ?";
+        List<Integer> result = jdbcTemplate.queryForList(query, Integer.class, syncName, runId);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Claims a pending shard, or a running shard whose owner let its lease expire.
+     */
+    public Integer claimShard(String syncName, String runId, String nodeId, Duration leaseTtl, int maxAttempts) {
+        String query = "update sync_shard set \"owner\" = ?, status = 'RUNNING', attempts = attempts + 1,"
+                + " lease_until = now() + make_interval(secs => ?)"
+                + " where (sync_name, run_id, shard) = ("
+                + "   select sync_name, run_id, shard from sync_shard"
+                + "   where sync_name = ? and run_id = ? and attempts < ?"
+                + "     and (status = 'PENDING' or (status = 'RUNNING' and lease_until < now()))"
+                + "   order by shard limit 1 for update skip locked)"
+                + " returning shard";
+        List<Integer> result = jdbcTemplate.queryForList(query, Integer.class,
+                nodeId, leaseTtl.toSeconds(), syncName, runId, maxAttempts);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    public void completeShard(String syncName, String runId, int shard) {
+        String query = "update sync_shard set status = 'DONE', lease_until = null"
+                + " where sync_name = ? and run_id = ? and shard = ?";
+        jdbcTemplate.update(query, syncName, runId, shard);
+    }
+
+    public void releaseShard(String syncName, String runId, int shard) {
+        String query = "update sync_shard set status = 'PENDING', \"owner\" = null, lease_until = null"
+                + " where sync_name = ? and run_id = ? and shard = ?";
+        jdbcTemplate.update(query, syncName, runId, shard);
+    }
+
+    /**
+     * Renews the leases of the running shards of the node and of the runs it is still coordinating.
+     */
+    public int renewLeases(String nodeId, Duration leaseTtl) {
+        String query = "update sync_shard set lease_until = now() + make_interval(secs => ?)"
+                + " where \"owner\" = ? and status = 'RUNNING'";
+        String runQuery = "update sync_run set coordinator_until = now() + make_interval(secs => ?)"
+                + " where coordinator = ? and shard_count is null";
+        return jdbcTemplate.update(query, leaseTtl.toSeconds(), nodeId)
+                + jdbcTemplate.update(runQuery, leaseTtl.toSeconds(), nodeId);
+    }
+
+    public void deleteRunsCreatedBefore(Duration age) {
+        String interval = "now() - make_interval(secs => ?)";
+        jdbcTemplate.update("delete from sync_shard s using sync_run r"
+                + " where s.sync_name = r.sync_name and s.run_id = r.run_id and r.created_at < " + interval, age.toSeconds());
+        jdbcTemplate.update("delete from sync_run where created_at < " + interval, age.toSeconds());
+    }
+}
@@ -1,29 +1,96 @@
 package id.taufiq.pd_scraper.repository;
 
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.metrics.ScrapeMetrics;
 import id.taufiq.pd_scraper.model.dao.CodeDate;
+import id.taufiq.pd_scraper.model.dao.UpsertCount;
+import id.taufiq.pd_scraper.model.entity.BondDaily;
+import id.taufiq.pd_scraper.model.entity.FundAum;
+import id.taufiq.pd_scraper.model.entity.FundDaily;
+import id.taufiq.pd_scraper.model.entity.FundUnit;
+import id.taufiq.pd_scraper.model.entity.Stock;
+import id.taufiq.pd_scraper.model.entity.StockDaily;
+import id.taufiq.pd_scraper.model.entity.StockMetric;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.beans.BeanUtils;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.jdbc.core.JdbcAggregateTemplate;
+import org.springframework.data.jdbc.core.mapping.JdbcMappingContext;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.relational.core.mapping.RelationalPersistentProperty;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.time.LocalDate;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toMap;
 
+@Slf4j
 @Repository
 public class CustomRepository {
 
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final String UPSERT_WATERMARK_QUERY = "insert into sync_watermark as w (series, \"key\", last_date, last_synced_at)"
+            + " values (?, ?, ?, now())"
+            + " on conflict (series, \"key\") do update"
+            + " set last_date = greatest(w.last_date, excluded.last_date), last_synced_at = excluded.last_synced_at";
+
+    private static final String UPSERT_STOCKS_QUERY = "with upserted as ("
+            + " insert into stocks as t (code, name)"
+            + " select code, name from unnest(?::varchar[], ?::varchar[]) as s (code, name)"
+            + " on conflict (code) do update set name = excluded.name where t.name is distinct from excluded.name"
+            + " returning (xmax = 0) as inserted)"
+            + " select count(*) filter (where inserted) as inserted, count(*) filter (where not inserted) as updated"
+            + " from upserted";
+
+    private static final Map<Class<?>, List<String>> NATURAL_KEYS = Map.of(
+            StockDaily.class, List.of("code", "date"),
+            BondDaily.class, List.of("bond_code", "date"),
+            FundDaily.class, List.of("fund_id", "date"),
+            FundAum.class, List.of("fund_id", "date"),
+            FundUnit.class, List.of("fund_id", "date"),
+            StockMetric.class, List.of("code", "date")
+    );
+
     private final JdbcTemplate jdbcTemplate;
     private final JdbcAggregateTemplate jdbcAggregateTemplate;
+    private final JdbcMappingContext mappingContext;
+    private final AppProperties appProperties;
+    private final ScrapeMetrics scrapeMetrics;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Map<Class<?>, DailyTable> dailyTables = new ConcurrentHashMap<>();
 
-    public CustomRepository(JdbcTemplate jdbcTemplate, JdbcAggregateTemplate jdbcAggregateTemplate) {
+    public CustomRepository(JdbcTemplate jdbcTemplate, JdbcAggregateTemplate jdbcAggregateTemplate,
+            JdbcMappingContext mappingContext, AppProperties appProperties, ScrapeMetrics scrapeMetrics,
+            ApplicationEventPublisher eventPublisher) {
         this.jdbcTemplate = jdbcTemplate;
         this.jdbcAggregateTemplate = jdbcAggregateTemplate;
+        this.mappingContext = mappingContext;
+        this.appProperties = appProperties;
+        this.scrapeMetrics = scrapeMetrics;
+        this.eventPublisher = eventPublisher;
     }
 
     public <T> void insert(T entity) {
@@ -38,6 +105,155 @@ public class CustomRepository {
         jdbcAggregateTemplate.insertAll(entities);
     }
 
+    /**
+     * Writes daily rows with batched {@code insert ... on conflict} statements keyed on the natural
+     * (code/fund_id, date) key. Existing rows are only rewritten when a value actually changed.
+     */
+    @Transactional
+    public <T> void upsertAll(List<T> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+
+        DailyTable table = dailyTable(entities.get(0).getClass());
+        List<RelationalPersistentProperty> properties = table.properties();
+        long start = System.nanoTime();
+
+        jdbcTemplate.batchUpdate(table.upsertSql(), entities, appProperties.getWriteBatchSize(), (ps, entity) -> {
+            PersistentPropertyAccessor<T> accessor = table.persistentEntity().getPropertyAccessor(entity);
+            for (int i = 0; i < properties.size(); i++) {
+                StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN,
+                        accessor.getProperty(properties.get(i)));
+            }
+        });
+        publishChanges(table, entities);
+        scrapeMetrics.recordWrite(table.name(), "upsert", entities.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Bulk loads daily rows through COPY into a temporary staging table, then merges them into the
+     * target table on its natural key the same way {@link #upsertAll(List)} does.
+     * Batches smaller than {@code app.copy-min-rows} go through {@link #upsertAll(List)} directly.
+     */
+    @Transactional
+    public <T> void copyAll(List<T> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        if (entities.size() < appProperties.getCopyMinRows()) {
+            upsertAll(entities);
+            return;
+        }
+
+        DailyTable table = dailyTable(entities.get(0).getClass());
+        String stageTable = "stage_" + table.name();
+
+        long start = System.nanoTime();
+
+        jdbcTemplate.execute("create temp table " + stageTable + " (like " + table.name() + " including defaults) on commit drop");
+        jdbcTemplate.execute((ConnectionCallback<Long>) connection -> copyIn(
+                connection.unwrap(PGConnection.class),
+                "copy " + stageTable + " (" + table.columns() + ") from stdin with (format csv)",
+                table, entities));
+        int written = jdbcTemplate.update(table.mergeSql(stageTable));
+        publishChanges(table, entities);
+
+        long elapsedNanos = System.nanoTime() - start;
+        scrapeMetrics.recordWrite(table.name(), "copy", entities.size(), elapsedNanos);
+
+        long elapsedMillis = Math.max(1, elapsedNanos / 1_000_000);
+        log.debug("Copied {} rows into {}, {} written, {} rows/s",
+                entities.size(), table.name(), written, entities.size() * 1000L / elapsedMillis);
+    }
+
+    /**
+     * Upserts stocks with one {@code insert ... select from unnest} statement per {@code app.write-batch-size}
+     * chunk, leaving rows whose name did not change untouched. Duplicate codes keep their first occurrence.
+     */
+    @Transactional
+    public UpsertCount upsertStocks(List<Stock> stocks) {
+        Map<String, Stock> stocksByCode = new LinkedHashMap<>();
+        stocks.stream()
+                .filter(it -> it.getCode() != null)
+                .forEach(it -> stocksByCode.putIfAbsent(it.getCode(), it));
+        List<Stock> uniqueStocks = new ArrayList<>(stocksByCode.values());
+
+        long start = System.nanoTime();
+        UpsertCount result = new UpsertCount();
+        int batchSize = Math.max(1, appProperties.getWriteBatchSize());
+        for (int from = 0; from < uniqueStocks.size(); from += batchSize) {
+            List<Stock> chunk = uniqueStocks.subList(from, Math.min(from + batchSize, uniqueStocks.size()));
+            String[] codes = chunk.stream().map(Stock::getCode).toArray(String[]::new);
+            String[] names = chunk.stream().map(Stock::getName).toArray(String[]::new);
+            UpsertCount count = jdbcTemplate.queryForObject(UPSERT_STOCKS_QUERY,
+                    (rs, rowNum) -> new UpsertCount(rs.getInt("inserted"), rs.getInt("updated"),
+                            chunk.size() - rs.getInt("inserted") - rs.getInt("updated")),
+                    codes, names);
+            if (count != null) {
+                result.add(count);
+            }
+        }
+        scrapeMetrics.recordWrite("stocks", "upsert", result.getInserted() + result.getUpdated(),
+                System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Drops daily rows repeating the natural key of an earlier row, keeping the first one. The key is packed into
+     * a long of a per-call code id and the epoch day, so no key objects are allocated per row.
+     */
+    public <T> List<T> distinctByNaturalKey(List<T> rows) {
+        if (rows.size() < 2) {
+            return rows;
+        }
+
+        DailyTable table = dailyTable(rows.get(0).getClass());
+        Map<Object, Integer> codeIds = new HashMap<>();
+        LongHashSet seenKeys = new LongHashSet(rows.size());
+        List<T> result = new ArrayList<>(rows.size());
+        for (T row : rows) {
+            PersistentPropertyAccessor<T> accessor = table.persistentEntity().getPropertyAccessor(row);
+            Object code = accessor.getProperty(table.keyProperty());
+            LocalDate date = (LocalDate) accessor.getProperty(table.dateProperty());
+            if (code == null || date == null) {
+                result.add(row);
+                continue;
+            }
+
+            long codeId = codeIds.computeIfAbsent(code, it -> codeIds.size() + 1);
+            if (seenKeys.add(codeId << 32 | (date.toEpochDay() & 0xFFFFFFFFL))) {
+                result.add(row);
+            }
+        }
+        return result.size() == rows.size() ? rows : result;
+    }
+
+    /**
+     * Reads the daily rows of one code or fund id between two dates, inclusive, ordered by date.
+     * Only the mapped columns are selected, so this works with and without the surrogate id column.
+     */
+    public <T> List<T> findDaily(Class<T> type, Object key, LocalDate from, LocalDate to) {
+        DailyTable table = dailyTable(type);
+        List<RelationalPersistentProperty> properties = table.properties();
+        String query = "select " + table.columns() + " from " + table.name()
+                + " where \"" + table.keyProperty().getColumnName().getReference() + "\" = ?"
+                + " and \"date\" between ? and ? order by \"date\"";
+
+        return jdbcTemplate.query(query, (rs, rowNum) -> {
+            T entity = BeanUtils.instantiateClass(type);
+            PersistentPropertyAccessor<T> accessor = table.persistentEntity().getPropertyAccessor(entity);
+            for (int i = 0; i < properties.size(); i++) {
+                RelationalPersistentProperty property = properties.get(i);
+                accessor.setProperty(property, JdbcUtils.getResultSetValue(rs, i + 1, property.getType()));
+            }
+            return accessor.getBean();
+        }, key, from, to);
+    }
+
+    public String findDailyTableName(Class<?> type) {
+        return dailyTable(type).name();
+    }
+
     public <T> void updateAll(List<T> entities) {
         jdbcAggregateTemplate.updateAll(entities);
     }
@@ -61,10 +277,10 @@ public class CustomRepository {
         return new HashSet<>(jdbcTemplate.queryForList(query, String.class));
     }
 
-    public Map<String, LocalDate> findAllBondDailyMaxDatePerCode() {
-        String query = "select bond_code as code, max(\"date\") as \"date\" from bond_daily group by bond_code";
-        List<CodeDate> maxDatePerCode = jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDate.class));
-        return maxDatePerCode.stream().collect(toMap(CodeDate::getCode, CodeDate::getDate));
+    public Map<String, LocalDate> findAllBondDailyWatermarkPerCode() {
+        String query = "select \"key\" as code, last_date as \"date\" from sync_watermark where series = 'bond_daily'";
+        List<CodeDate> watermarkPerCode = jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDate.class));
+        return watermarkPerCode.stream().collect(toMap(CodeDate::getCode, CodeDate::getDate));
     }
 
     public Set<Integer> findAllFundIds() {
@@ -77,28 +293,147 @@ public class CustomRepository {
         return new HashSet<>(jdbcTemplate.queryForList(query, String.class));
     }
 
-    public Map<String, LocalDate> findAllStockDailyMaxDatePerCode() {
-        String query = "select code, max(\"date\") as date from stock_daily group by code";
-        List<CodeDate> maxDatePerCode = jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDate.class));
-        return maxDatePerCode.stream().collect(toMap(CodeDate::getCode, CodeDate::getDate));
+    public Map<String, LocalDate> findAllStockDailyWatermarkPerCode() {
+        String query = "select \"key\" as code, last_date as \"date\" from sync_watermark where series = 'stock_daily'";
+        List<CodeDate> watermarkPerCode = jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDate.class));
+        return watermarkPerCode.stream().collect(toMap(CodeDate::getCode, CodeDate::getDate));
     }
 
-    public Map<Integer, LocalDate> findAllFundDailyMaxDatePerId() {
-        String query = "select fund_id as code, max(\"date\") as \"date\" from fund_daily group by fund_id";
-        List<CodeDate> maxDatePerId = jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDate.class));
-        return maxDatePerId.stream()
+    public Map<Integer, LocalDate> findAllFundDailyWatermarkPerId() {
+        String query = "select \"key\" as code, last_date as \"date\" from sync_watermark where series = 'fund_daily'";
+        List<CodeDate> watermarkPerId = jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDate.class));
+        return watermarkPerId.stream()
                 .collect(Collectors.toMap(it -> Integer.valueOf(it.getCode()), CodeDate::getDate, (a, b) -> a));
     }
 
-    public Map<Integer, LocalDate> findAllFundAumMaxDatePerId() {
-        String query = "select fund_id as code, max(\"date\") as \"date\" from fund_aum group by fund_id";
-        List<CodeDate> maxDatePerId = jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDate.class));
-        return maxDatePerId.stream()
+    public Map<Integer, LocalDate> findAllFundAumWatermarkPerId() {
+        String query = "select \"key\" as code, last_date as \"date\" from sync_watermark where series = 'fund_aum'";
+        List<CodeDate> watermarkPerId = jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDate.class));
+        return watermarkPerId.stream()
                 .collect(Collectors.toMap(it -> Integer.valueOf(it.getCode()), CodeDate::getDate, (a, b) -> a));
     }
 
-    public List<CodeDate> findAllFundUnitMaxDatePerId() {
-        String query = "select fund_id as code, max(\"date\") as \"date\" from fund_unit group by fund_id";
+    public List<CodeDate> findAllFundUnitWatermarkPerId() {
+        String query = "select \"key\" as code, last_date as \"date\" from sync_watermark where series = 'fund_unit'";
         return jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDate.class));
     }
+
+    /**
+     * Advances the watermark of each key to its date, never moving one backwards. Callers only advance a
+     * key once all of its rows up to that date are committed.
+     */
+    public void advanceWatermarks(Class<?> type, Map<String, LocalDate> lastDates) {
+        String tableName = dailyTable(type).name();
+        List<Object[]> args = lastDates.entrySet().stream()
+                .map(it -> new Object[]{tableName, it.getKey(), it.getValue()})
+                .toList();
+        jdbcTemplate.batchUpdate(UPSERT_WATERMARK_QUERY, args);
+    }
+
+    /**
+     * The latest date of the daily rows, or null when there is none.
+     */
+    public <T> LocalDate findMaxDate(List<T> rows) {
+        if (rows.isEmpty()) {
+            return null;
+        }
+
+        DailyTable table = dailyTable(rows.get(0).getClass());
+        LocalDate result = null;
+        for (T row : rows) {
+            LocalDate date = (LocalDate) table.persistentEntity().getPropertyAccessor(row)
+                    .getProperty(table.dateProperty());
+            if (date != null && (result == null || date.isAfter(result))) {
+                result = date;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Announces the written date range of every key in the batch.
+     */
+    private <T> void publishChanges(DailyTable table, List<T> entities) {
+        Map<String, DailyChange> changes = new HashMap<>();
+        for (T entity : entities) {
+            PersistentPropertyAccessor<T> accessor = table.persistentEntity().getPropertyAccessor(entity);
+            Object key = accessor.getProperty(table.keyProperty());
+            LocalDate date = (LocalDate) accessor.getProperty(table.dateProperty());
+            if (key != null && date != null) {
+                changes.merge(key.toString(), new DailyChange(table.name(), key.toString(), date, date, 1),
+                        (a, b) -> new DailyChange(a.table(), a.key(),
+                                a.from().isBefore(b.from()) ? a.from() : b.from(),
+                                a.to().isAfter(b.to()) ? a.to() : b.to(),
+                                a.rows() + b.rows()));
+            }
+        }
+        eventPublisher.publishEvent(new DailyRowsWritten(table.name(), changes));
+    }
+
+    private DailyTable dailyTable(Class<?> type) {
+        return dailyTables.computeIfAbsent(type, it -> {
+            List<String> keys = NATURAL_KEYS.get(it);
+            if (keys == null) {
+                throw new IllegalArgumentException("No natural key defined for " + it.getSimpleName());
+            }
+            return DailyTable.of(mappingContext, it, keys);
+        });
+    }
+
+    private static <T> long copyIn(PGConnection connection, String sql, DailyTable table, List<T> entities)
+            throws SQLException {
+        List<RelationalPersistentProperty> properties = table.properties();
+        CopyIn copyIn = connection.getCopyAPI().copyIn(sql);
+        try {
+            StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE);
+            for (T entity : entities) {
+                PersistentPropertyAccessor<T> accessor = table.persistentEntity().getPropertyAccessor(entity);
+                for (int i = 0; i < properties.size(); i++) {
+                    if (i > 0) {
+                        buffer.append(',');
+                    }
+                    appendCsv(buffer, accessor.getProperty(properties.get(i)));
+                }
+                buffer.append('\n');
+
+                if (buffer.length() >= COPY_BUFFER_SIZE) {
+                    writeToCopy(copyIn, buffer);
+                }
+            }
+            writeToCopy(copyIn, buffer);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void writeToCopy(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    private static void appendCsv(StringBuilder buffer, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof BigDecimal decimal) {
+            buffer.append(decimal.toPlainString());
+        } else if (value instanceof Number || value instanceof Boolean || value instanceof Temporal) {
+            buffer.append(value);
+        } else {
+            String text = value.toString();
+            buffer.append('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    buffer.append('"');
+                }
+                buffer.append(c);
+            }
+            buffer.append('"');
+        }
+    }
 }
@@ -0,0 +1,9 @@
+package id.taufiq.pd_scraper.repository;
+
+import java.time.LocalDate;
+
+/**
+ * Rows of one code or fund id written to a daily table by a single batch, with the dates they span.
+ */
+public record DailyChange(String table, String key, LocalDate from, LocalDate to, int rows) {
+}
@@ -0,0 +1,94 @@
+package id.taufiq.pd_scraper.repository;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the keys of the daily tables in line with {@code app.natural-keys} after the schema script ran.
+ * <p>
+ * Rows are never written with an id, so without natural keys the id column only needs a database default. It is
+ * set only on tables still lacking one, as altering the column takes an exclusive lock on the table.
+ * With natural keys the id column is dropped and the existing (code, date) unique constraint becomes the
+ * primary key. The primary key keeps the name of the unique constraint so the {@code if not exists} guards in
+ * schema.sql keep seeing it. The conversion rewrites each table under an exclusive lock and cannot be reverted
+ * by turning the option off again.
+ */
+@Slf4j
+@Component
+public class DailyKeyMigration implements InitializingBean {
+
+    static final Map<String, List<String>> DAILY_TABLE_KEYS = new LinkedHashMap<>();
+
+    static {
+        DAILY_TABLE_KEYS.put("stock_daily", List.of("code", "date"));
+        DAILY_TABLE_KEYS.put("bond_daily", List.of("bond_code", "date"));
+        DAILY_TABLE_KEYS.put("fund_daily", List.of("fund_id", "date"));
+        DAILY_TABLE_KEYS.put("fund_aum", List.of("fund_id", "date"));
+        DAILY_TABLE_KEYS.put("fund_unit", List.of("fund_id", "date"));
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final AppProperties appProperties;
+
+    public DailyKeyMigration(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+            AppProperties appProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.appProperties = appProperties;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        DAILY_TABLE_KEYS.forEach((table, keys) -> {
+            List<String> idDefault = idColumnDefault(table);
+            if (idDefault.isEmpty()) {
+                if (!appProperties.isNaturalKeys()) {
+                    log.warn("Table {} already uses natural keys, app.natural-keys cannot be turned off again", table);
+                }
+                return;
+            }
+
+            if (appProperties.isNaturalKeys()) {
+                migrate(table, keys);
+            } else if (idDefault.get(0) == null) {
+                log.info("Setting a default on the id column of {}", table);
+                jdbcTemplate.execute("alter table " + table + " alter column id set default gen_random_uuid()");
+            }
+        });
+    }
+
+    private void migrate(String table, List<String> keys) {
+        log.info("Migrating {} to a natural ({}) primary key", table, String.join(", ", keys));
+        long start = System.currentTimeMillis();
+
+        String constraint = table + "_unique";
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("alter table " + table + " drop column id");
+            jdbcTemplate.execute("alter table " + table + " drop constraint if exists " + constraint);
+            jdbcTemplate.execute("drop index if exists " + constraint);
+            jdbcTemplate.execute("alter table " + table + " add constraint " + constraint + " primary key ("
+                    + String.join(", ", keys.stream().map(it -> "\"" + it + "\"").toList()) + ")");
+        });
+
+        log.info("Migrated {} in {} ms", table, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Default of the id column of the table, holding a null element when it has none and empty when the table
+     * has no id column.
+     */
+    private List<String> idColumnDefault(String table) {
+        String query = "select column_default from information_schema.columns"
+                + " where table_schema = current_schema() and table_name = ? and column_name = 'id'";
+        return jdbcTemplate.queryForList(query, String.class, table);
+    }
+}
@@ -0,0 +1,228 @@
+package id.taufiq.pd_scraper.repository;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.config.AppProperties.PartitionInterval;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Range partitions the daily tables by date when {@code app.partitioning.enabled} is set.
+ * <p>
+ * An unpartitioned table is converted online. It first gets a validated {@code date < cutoff} check and a
+ * concurrently built date index while syncs keep writing to it. Then, under a short exclusive lock, it is renamed
+ * to {@code <table>_legacy} and attached to a new partitioned table as the partition for every date before the
+ * cutoff, which needs no rescan thanks to the check. Existing rows therefore stay in one legacy partition. A table
+ * that is still empty gets its cutoff at {@code app.partitioning.start-date} instead.
+ * <p>
+ * Yearly or monthly partitions from the cutoff on are created {@code app.partitioning.premake} periods ahead at
+ * startup and every night, and inherit the date index of the parent table. Rows dated past the last partition
+ * land in a {@code <table>_default} partition instead of failing the write, and are moved into their own
+ * partition once it is created. Replicas convert tables and create partitions one at a time under an advisory
+ * lock.
+ */
+@Slf4j
+@Component
+@DependsOn("dailyKeyMigration")
+public class DailyPartitionManager implements InitializingBean {
+
+    private static final long MIGRATION_LOCK_ID = 0x70645f7061727469L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AppProperties appProperties;
+
+    public DailyPartitionManager(JdbcTemplate jdbcTemplate, AppProperties appProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.appProperties = appProperties;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!appProperties.getPartitioning().isEnabled()) {
+            return;
+        }
+        if (!appProperties.isNaturalKeys()) {
+            throw new IllegalStateException("app.partitioning.enabled requires app.natural-keys, partitioned tables"
+                    + " need the date in their primary key");
+        }
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            execute(connection, "select pg_advisory_lock(" + MIGRATION_LOCK_ID + ")");
+            try {
+                for (String table : DailyKeyMigration.DAILY_TABLE_KEYS.keySet()) {
+                    if (!isPartitioned(connection, table)) {
+                        migrate(connection, table, DailyKeyMigration.DAILY_TABLE_KEYS.get(table));
+                    }
+                }
+            } finally {
+                execute(connection, "select pg_advisory_unlock(" + MIGRATION_LOCK_ID + ")");
+            }
+            return null;
+        });
+        createPartitions();
+    }
+
+    @Scheduled(cron = "0 0 0 * * *")
+    void createPartitions() {
+        if (!appProperties.getPartitioning().isEnabled()) {
+            return;
+        }
+
+        LocalDate until = plusPeriods(periodStart(LocalDate.now()), appProperties.getPartitioning().getPremake() + 1);
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            execute(connection, "select pg_advisory_lock(" + MIGRATION_LOCK_ID + ")");
+            try {
+                for (String table : DailyKeyMigration.DAILY_TABLE_KEYS.keySet()) {
+                    execute(connection, "create table if not exists " + table + "_default partition of " + table
+                            + " default");
+                    LocalDate from = lastUpperBound(connection, table);
+                    if (from == null) {
+                        log.warn("Table {} has no bounded partition to extend", table);
+                        continue;
+                    }
+                    for (; from.isBefore(until); from = plusPeriods(from, 1)) {
+                        createPartition(connection, table, from);
+                    }
+                }
+            } finally {
+                execute(connection, "select pg_advisory_unlock(" + MIGRATION_LOCK_ID + ")");
+            }
+            return null;
+        });
+    }
+
+    private void migrate(Connection connection, String table, List<String> keys) throws SQLException {
+        boolean empty = !exists(connection, "select 1 from " + table + " limit 1");
+        LocalDate cutoff = empty
+                ? periodStart(appProperties.getPartitioning().getStartDate())
+                : plusPeriods(periodStart(LocalDate.now().plusDays(1)), 1);
+        log.info("Partitioning {} by {}, existing rows before {} stay in {}_legacy",
+                table, appProperties.getPartitioning().getInterval().name().toLowerCase(), cutoff, table);
+        long start = System.currentTimeMillis();
+
+        String check = table + "_partition_bound";
+        execute(connection, "alter table " + table + " drop constraint if exists " + check);
+        execute(connection, "alter table " + table + " add constraint " + check
+                + " check (\"date\" < '" + cutoff + "') not valid");
+        execute(connection, "alter table " + table + " validate constraint " + check);
+        execute(connection, "create index concurrently if not exists " + table + "_legacy_date_idx"
+                + " on " + table + " (\"date\")");
+
+        String keyColumns = keys.stream().map(it -> "\"" + it + "\"").collect(Collectors.joining(", "));
+        connection.setAutoCommit(false);
+        try {
+            execute(connection, "lock table " + table + " in access exclusive mode");
+            execute(connection, "alter table " + table + " rename to " + table + "_legacy");
+            execute(connection, "alter table " + table + "_legacy rename constraint " + table + "_unique to "
+                    + table + "_legacy_unique");
+            execute(connection, "create table " + table + " (like " + table + "_legacy including defaults)"
+                    + " partition by range (\"date\")");
+            execute(connection, "alter table " + table + " add constraint " + table + "_unique primary key ("
+                    + keyColumns + ")");
+            execute(connection, "alter table " + table + " attach partition " + table + "_legacy"
+                    + " for values from (minvalue) to ('" + cutoff + "')");
+            execute(connection, "create index " + table + "_date_idx on " + table + " (\"date\")");
+            execute(connection, "create table " + table + "_default partition of " + table + " default");
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        log.info("Partitioned {} in {} ms", table, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Creates the partition starting at {@code from}. Rows of its range already in the default partition would
+     * make the creation fail, so they are moved out and back in within the same transaction.
+     */
+    private void createPartition(Connection connection, String table, LocalDate from) throws SQLException {
+        String name = table + "_p" + from.getYear()
+                + (appProperties.getPartitioning().getInterval() == PartitionInterval.MONTH
+                ? String.format("_%02d", from.getMonthValue())
+                : "");
+        String create = "create table if not exists " + name + " partition of " + table
+                + " for values from ('" + from + "') to ('" + plusPeriods(from, 1) + "')";
+        String range = "\"date\" >= '" + from + "' and \"date\" < '" + plusPeriods(from, 1) + "'";
+        if (exists(connection, "select 1 from pg_class where oid = to_regclass('" + name + "')")
+                || !exists(connection, "select 1 from " + table + "_default where " + range + " limit 1")) {
+            execute(connection, create);
+            log.debug("Ensured partition {}", name);
+            return;
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            execute(connection, "create temporary table " + name + "_moved (like " + table + ") on commit drop");
+            execute(connection, "with moved as (delete from " + table + "_default where " + range + " returning *)"
+                    + " insert into " + name + "_moved select * from moved");
+            execute(connection, create);
+            execute(connection, "insert into " + table + " select * from " + name + "_moved");
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        log.info("Created partition {} and moved its rows out of {}_default", name, table);
+    }
+
+    private static boolean isPartitioned(Connection connection, String table) throws SQLException {
+        return exists(connection, "select 1 from pg_partitioned_table p join pg_class c on c.oid = p.partrelid"
+                + " where c.oid = to_regclass('" + table + "')");
+    }
+
+    /**
+     * Upper bound of the partition with the latest dates, parsed from its {@code for values} clause.
+     */
+    private static LocalDate lastUpperBound(Connection connection, String table) throws SQLException {
+        String query = "select max(substring(pg_get_expr(c.relpartbound, c.oid) from 'TO \\(''([0-9-]+)''\\)'))"
+                + " from pg_inherits i join pg_class c on c.oid = i.inhrelid where i.inhparent = to_regclass(?)";
+        try (PreparedStatement ps = connection.prepareStatement(query)) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                String bound = rs.next() ? rs.getString(1) : null;
+                return bound != null ? LocalDate.parse(bound) : null;
+            }
+        }
+    }
+
+    private LocalDate periodStart(LocalDate date) {
+        return appProperties.getPartitioning().getInterval() == PartitionInterval.MONTH
+                ? date.withDayOfMonth(1)
+                : date.withDayOfYear(1);
+    }
+
+    private LocalDate plusPeriods(LocalDate date, int periods) {
+        return appProperties.getPartitioning().getInterval() == PartitionInterval.MONTH
+                ? date.plusMonths(periods)
+                : date.plusYears(periods);
+    }
+
+    private static boolean exists(Connection connection, String query) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(query)) {
+            return rs.next();
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
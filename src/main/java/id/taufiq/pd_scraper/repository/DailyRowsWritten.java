@@ -0,0 +1,15 @@
+package id.taufiq.pd_scraper.repository;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Published inside the write transaction whenever rows of a daily table were upserted,
+ * with the change of every code or fund id the rows belong to.
+ */
+public record DailyRowsWritten(String table, Map<String, DailyChange> changes) {
+
+    public Set<String> keys() {
+        return changes.keySet();
+    }
+}
@@ -0,0 +1,89 @@
+package id.taufiq.pd_scraper.repository;
+
+import org.springframework.data.relational.core.mapping.RelationalMappingContext;
+import org.springframework.data.relational.core.mapping.RelationalPersistentEntity;
+import org.springframework.data.relational.core.mapping.RelationalPersistentProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Column metadata and generated write statements of a daily table, derived from its entity mapping.
+ * The first natural key column together with the date identifies the row's sync watermark.
+ * The surrogate id is never written, it is either generated by the database or absent with natural keys.
+ */
+record DailyTable(RelationalPersistentEntity<?> persistentEntity,
+                  List<RelationalPersistentProperty> properties,
+                  String name,
+                  String columns,
+                  String keyColumns,
+                  String onConflict,
+                  RelationalPersistentProperty keyProperty,
+                  RelationalPersistentProperty dateProperty) {
+
+    static DailyTable of(RelationalMappingContext mappingContext, Class<?> type, List<String> keys) {
+        RelationalPersistentEntity<?> persistentEntity = mappingContext.getRequiredPersistentEntity(type);
+
+        List<RelationalPersistentProperty> properties = new ArrayList<>();
+        persistentEntity.forEach(it -> {
+            if (!it.isIdProperty()) {
+                properties.add(it);
+            }
+        });
+
+        List<String> updateColumns = properties.stream()
+                .filter(it -> !it.isInsertOnly())
+                .map(it -> it.getColumnName().getReference())
+                .filter(it -> !keys.contains(it))
+                .map(DailyTable::quote)
+                .toList();
+
+        String onConflict = "on conflict (" + quoteAll(keys) + ") do nothing";
+        if (!updateColumns.isEmpty()) {
+            onConflict = "on conflict (" + quoteAll(keys) + ") do update set "
+                    + updateColumns.stream().map(it -> it + " = excluded." + it).collect(Collectors.joining(", "))
+                    + " where (" + updateColumns.stream().map(it -> "t." + it).collect(Collectors.joining(", "))
+                    + ") is distinct from ("
+                    + updateColumns.stream().map(it -> "excluded." + it).collect(Collectors.joining(", ")) + ")";
+        }
+
+        return new DailyTable(
+                persistentEntity,
+                properties,
+                persistentEntity.getTableName().getReference(),
+                quoteAll(properties.stream().map(it -> it.getColumnName().getReference()).toList()),
+                quoteAll(keys),
+                onConflict,
+                requiredProperty(properties, keys.get(0)),
+                requiredProperty(properties, "date")
+        );
+    }
+
+    String upsertSql() {
+        String placeholders = properties.stream().map(it -> "?").collect(Collectors.joining(", "));
+        return "insert into " + name + " as t (" + columns + ") values (" + placeholders + ") " + onConflict;
+    }
+
+    String mergeSql(String stageTable) {
+        return "insert into " + name + " as t (" + columns + ")"
+                + " select distinct on (" + keyColumns + ") " + columns + " from " + stageTable + " "
+                + onConflict;
+    }
+
+    private static RelationalPersistentProperty requiredProperty(List<RelationalPersistentProperty> properties,
+            String column) {
+        return properties.stream()
+                .filter(it -> it.getColumnName().getReference().equals(column))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No property mapped to column " + column));
+    }
+
+    private static String quoteAll(List<String> columns) {
+        return columns.stream().map(DailyTable::quote).collect(Collectors.joining(", "));
+    }
+
+    private static String quote(String column) {
+        return "\"" + column + "\"";
+    }
+}
@@ -0,0 +1,61 @@
+package id.taufiq.pd_scraper.repository;
+
+import id.taufiq.pd_scraper.model.dao.FetchCache;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+public class FetchCacheRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FetchCacheRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public FetchCache findByEndpoint(String endpoint) {
+        String query = "select endpoint, etag, last_modified, content_hash, context_hash from fetch_cache"
+                + " where endpoint = ?";
+        List<FetchCache> result = jdbcTemplate.query(query, new BeanPropertyRowMapper<>(FetchCache.class), endpoint);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    public void save(FetchCache cache) {
+        String query = "insert into fetch_cache (endpoint, etag, last_modified, content_hash, context_hash, updated_at)"
+                + " values (?, ?, ?, ?, ?, now())"
+                + " on conflict (endpoint) do update set etag = excluded.etag, last_modified = excluded.last_modified,"
+                + " content_hash = excluded.content_hash, context_hash = excluded.context_hash,"
+                + " updated_at = excluded.updated_at";
+        jdbcTemplate.update(query, cache.getEndpoint(), cache.getEtag(), cache.getLastModified(), cache.getContentHash(),
+                cache.getContextHash());
+    }
+
+    public Map<String, String> findEntityHashes(String entity) {
+        String query = "select \"key\", hash from entity_hash where entity = ?";
+        Map<String, String> result = new HashMap<>();
+        jdbcTemplate.query(query, rs -> {
+            result.put(rs.getString("key"), rs.getString("hash"));
+        }, entity);
+        return result;
+    }
+
+    /**
+     * Saves the fetch validators together with the hashes of the entities written from that response.
+     */
+    @Transactional
+    public void save(FetchCache cache, String entity, Map<String, String> hashes) {
+        String query = "insert into entity_hash (entity, \"key\", hash, updated_at) values (?, ?, ?, now())"
+                + " on conflict (entity, \"key\") do update set hash = excluded.hash, updated_at = excluded.updated_at";
+        List<Object[]> args = hashes.entrySet().stream()
+                .map(it -> new Object[]{entity, it.getKey(), it.getValue()})
+                .toList();
+        jdbcTemplate.batchUpdate(query, args);
+        save(cache);
+    }
+}
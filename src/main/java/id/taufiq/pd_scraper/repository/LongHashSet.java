@@ -0,0 +1,67 @@
+package id.taufiq.pd_scraper.repository;
+
+/**
+ * Open addressing set of non-zero longs, used to track packed keys without boxing them.
+ */
+final class LongHashSet {
+
+    private long[] table;
+    private int size;
+
+    LongHashSet(int expectedSize) {
+        table = new long[tableSizeFor(Math.max(2, expectedSize) * 2)];
+    }
+
+    /**
+     * Adds the key, returning false if it was already present. Zero is reserved for empty slots.
+     */
+    boolean add(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Zero keys are not supported");
+        }
+        if ((size + 1) * 2 > table.length) {
+            resize();
+        }
+        if (!insert(table, key)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize() {
+        long[] resized = new long[table.length * 2];
+        for (long key : table) {
+            if (key != 0) {
+                insert(resized, key);
+            }
+        }
+        table = resized;
+    }
+
+    private static boolean insert(long[] table, long key) {
+        int mask = table.length - 1;
+        int index = mix(key) & mask;
+        while (table[index] != 0) {
+            if (table[index] == key) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table[index] = key;
+        return true;
+    }
+
+    private static int mix(long key) {
+        int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+}
@@ -0,0 +1,140 @@
+package id.taufiq.pd_scraper.repository;
+
+import id.taufiq.pd_scraper.model.dao.CodeDateRange;
+import id.taufiq.pd_scraper.model.dao.ScrapeJob;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public class ScrapeJobRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ScrapeJobRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Enqueues a job per window. Finished or failed jobs for the same window are reset,
+     * pending and running ones are left alone.
+     */
+    public void enqueue(String series, List<CodeDateRange> windows) {
+        String query = "insert into scrape_job as j (series, \"key\", start_date, end_date, status, attempts,"
+                + " next_attempt_at, created_at, updated_at)"
+                + " values (?, ?, ?, ?, 'PENDING', 0, now(), now(), now())"
+                + " on conflict (series, \"key\", start_date, end_date) do update"
+                + " set status = 'PENDING', attempts = 0, last_error = null, next_attempt_at = now(), updated_at = now()"
+                + " where j.status in ('DONE', 'FAILED')";
+        List<Object[]> args = windows.stream()
+                .map(it -> new Object[]{series, it.getCode(), it.getStartDate(), it.getEndDate()})
+                .toList();
+        jdbcTemplate.batchUpdate(query, args);
+    }
+
+    /**
+     * Makes the failed jobs of the keys due again with a fresh attempt budget, returning how many there were.
+     */
+    public int retryFailed(String series, Collection<String> keys) {
+        String query = "update scrape_job set status = 'PENDING', attempts = 0, next_attempt_at = now(), updated_at = now()"
+                + " where series = ? and status = 'FAILED' and \"key\" = any(?)";
+        return jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(query);
+            ps.setString(1, series);
+            ps.setArray(2, con.createArrayOf("varchar", keys.toArray()));
+            return ps;
+        });
+    }
+
+    /**
+     * Claims the next due job of the keys, or of any key when they are null, including running jobs whose worker
+     * let the lock expire.
+     */
+    public ScrapeJob claim(Collection<String> series, Collection<String> keys, String workerId, Duration lease) {
+        String query = "update scrape_job set status = 'RUNNING', attempts = attempts + 1, locked_by = ?,"
+                + " locked_until = now() + make_interval(secs => ?), updated_at = now()"
+                + " where id = ("
+                + "   select id from scrape_job"
+                + "   where series = any(?)"
+                + (keys != null ? " and \"key\" = any(?)" : "")
+                + "     and ((status = 'PENDING' and next_attempt_at <= now())"
+                + "       or (status = 'RUNNING' and locked_until < now()))"
+                + "   order by next_attempt_at, id limit 1 for update skip locked)"
+                + " returning id, series, \"key\", start_date, end_date, attempts";
+        List<ScrapeJob> result = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(query);
+            ps.setString(1, workerId);
+            ps.setLong(2, lease.toSeconds());
+            ps.setArray(3, con.createArrayOf("varchar", series.toArray()));
+            if (keys != null) {
+                ps.setArray(4, con.createArrayOf("varchar", keys.toArray()));
+            }
+            return ps;
+        }, new BeanPropertyRowMapper<>(ScrapeJob.class));
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    public void complete(long id) {
+        String query = "update scrape_job set status = 'DONE', last_error = null, locked_by = null, locked_until = null,"
+                + " updated_at = now() where id = ?";
+        jdbcTemplate.update(query, id);
+    }
+
+    public void retryLater(long id, String error, Duration delay) {
+        String query = "update scrape_job set status = 'PENDING', last_error = ?, locked_by = null, locked_until = null,"
+                + " next_attempt_at = now() + make_interval(secs => ?), updated_at = now() where id = ?";
+        jdbcTemplate.update(query, error, delay.toSeconds(), id);
+    }
+
+    public void fail(long id, String error) {
+        String query = "update scrape_job set status = 'FAILED', last_error = ?, locked_by = null, locked_until = null,"
+                + " updated_at = now() where id = ?";
+        jdbcTemplate.update(query, error, id);
+    }
+
+    public int renewLocks(String workerId, Duration lease) {
+        String query = "update scrape_job set locked_until = now() + make_interval(secs => ?)"
+                + " where locked_by = ? and status = 'RUNNING'";
+        return jdbcTemplate.update(query, lease.toSeconds(), workerId);
+    }
+
+    /**
+     * Jobs of the keys that are pending or running.
+     */
+    public int countPending(String series, Collection<String> keys) {
+        String query = "select count(*) from scrape_job where series = ? and \"key\" = any(?)"
+                + " and status in ('PENDING', 'RUNNING')";
+        List<Integer> count = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(query);
+            ps.setString(1, series);
+            ps.setArray(2, con.createArrayOf("varchar", keys.toArray()));
+            return ps;
+        }, (rs, rowNum) -> rs.getInt(1));
+        return count.isEmpty() ? 0 : count.get(0);
+    }
+
+    /**
+     * Jobs of the keys that are running or due, which a drain of the keys has to wait for.
+     */
+    public int countInFlight(Collection<String> series, Collection<String> keys) {
+        String query = "select count(*) from scrape_job where series = any(?) and \"key\" = any(?)"
+                + " and (status = 'RUNNING' or (status = 'PENDING' and next_attempt_at <= now()))";
+        List<Integer> count = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(query);
+            ps.setArray(1, con.createArrayOf("varchar", series.toArray()));
+            ps.setArray(2, con.createArrayOf("varchar", keys.toArray()));
+            return ps;
+        }, (rs, rowNum) -> rs.getInt(1));
+        return count.isEmpty() ? 0 : count.get(0);
+    }
+
+    public int deleteDoneBefore(Duration age) {
+        String query = "delete from scrape_job where status = 'DONE' and updated_at < now() - make_interval(secs => ?)";
+        return jdbcTemplate.update(query, age.toSeconds());
+    }
+}
@@ -0,0 +1,199 @@
+package id.taufiq.pd_scraper.repository;
+
+import id.taufiq.pd_scraper.model.dao.CodeDate;
+import id.taufiq.pd_scraper.model.dao.CodeDateRange;
+import id.taufiq.pd_scraper.model.entity.StockDaily;
+import id.taufiq.pd_scraper.model.entity.StockMetric;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+public class StockMetricRepository {
+
+    private static final String UPSERT_MARKET_METRICS_QUERY = "insert into market_metric as t"
+            + " (\"date\", stock_count, advancers, decliners, total_market_cap, cap_weighted_return)"
+            + " select d.\"date\", count(*), count(*) filter (where m.daily_return > 0),"
+            + " count(*) filter (where m.daily_return < 0), sum(d.market_cap),"
+            + " sum(d.market_cap * m.daily_return) / nullif(sum(d.market_cap) filter (where m.daily_return is not null), 0)"
+            + " from stock_daily d left join stock_metric m on m.code = d.code and m.\"date\" = d.\"date\""
+            + " where d.\"date\" >= ? and d.\"date\" < ? group by d.\"date\""
+            + " on conflict (\"date\") do update set stock_count = excluded.stock_count,"
+            + " advancers = excluded.advancers, decliners = excluded.decliners,"
+            + " total_market_cap = excluded.total_market_cap, cap_weighted_return = excluded.cap_weighted_return";
+
+    private static final long STAGE_LOCK_ID = 0x70645f6d65747269L;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StockMetricRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Runs the work holding a session advisory lock, so the metric stage of several nodes runs one at a time and
+     * a node waiting for the lock only finds the stocks the previous one did not cover.
+     */
+    public void runExclusively(Runnable work) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("select pg_advisory_lock(" + STAGE_LOCK_ID + ")");
+            }
+            try {
+                work.run();
+            } finally {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("select pg_advisory_unlock(" + STAGE_LOCK_ID + ")");
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Remembers the earliest {@code stock_daily} date written per stock under the {@code stock_daily_written}
+     * series until the metric stage next looks at it, within the transaction writing the rows.
+     */
+    public void markWritten(Collection<DailyChange> changes) {
+        List<DailyChange> sorted = changes.stream().sorted(Comparator.comparing(DailyChange::key)).toList();
+        String query = "insert into sync_watermark as w (series, \"key\", last_date, last_synced_at)"
+                + " select 'stock_daily_written', s.code, s.first_date, now()"
+                + " from unnest(?::varchar[], ?::date[]) with ordinality as s (code, first_date, n) order by s.n"
+                + " on conflict (series, \"key\") do update set last_date = least(w.last_date, excluded.last_date),"
+                + " last_synced_at = excluded.last_synced_at";
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(query);
+            ps.setArray(1, con.createArrayOf("varchar", sorted.stream().map(DailyChange::key).toArray()));
+            ps.setArray(2, con.createArrayOf("date", sorted.stream().map(it -> Date.valueOf(it.from())).toArray()));
+            return ps;
+        });
+    }
+
+    /**
+     * Takes the stocks marked by {@link #markWritten} and moves the metric watermark of those that received rows
+     * at or before it back to their last metric before both the earliest such row and their {@code stock_daily}
+     * watermark, or drops it when there is none. Their metrics are then stale and computed again from there.
+     * Returns the number of watermarks moved back.
+     */
+    @Transactional
+    public int rewindWatermarks() {
+        String takeQuery = "delete from sync_watermark where series = 'stock_daily_written'"
+                + " returning \"key\" as code, last_date as \"date\"";
+        List<CodeDate> written = jdbcTemplate.query(takeQuery, new BeanPropertyRowMapper<>(CodeDate.class));
+        if (written.isEmpty()) {
+            return 0;
+        }
+
+        String lateRows = "unnest(?::varchar[], ?::date[]) as s (code, late_date)"
+                + " where w.series = 'stock_metric' and w.\"key\" = s.code and w.last_date >= s.late_date";
+        String before = "m.code = s.code and m.\"date\" < least(s.late_date, (select d.last_date from sync_watermark d"
+                + " where d.series = 'stock_daily' and d.\"key\" = s.code))";
+        String dropQuery = "delete from sync_watermark w using " + lateRows
+                + " and not exists (select 1 from stock_metric m where " + before + ")";
+        String rewindQuery = "update sync_watermark w set last_synced_at = now(),"
+                + " last_date = (select max(m.\"date\") from stock_metric m where " + before + ") from " + lateRows;
+        int rewound = 0;
+        for (String query : List.of(dropQuery, rewindQuery)) {
+            rewound += jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement(query);
+                ps.setArray(1, con.createArrayOf("varchar", written.stream().map(CodeDate::getCode).toArray()));
+                ps.setArray(2, con.createArrayOf("date", written.stream()
+                        .map(it -> Date.valueOf(it.getDate()))
+                        .toArray()));
+                return ps;
+            });
+        }
+        return rewound;
+    }
+
+    /**
+     * Stocks whose daily rows are ahead of their metrics. The start date is the date of their last metric or null
+     * when they have none yet, the end date their {@code stock_daily} watermark.
+     */
+    public List<CodeDateRange> findStaleCodes() {
+        String query = "select d.\"key\" as code, m.last_date as start_date, d.last_date as end_date"
+                + " from sync_watermark d"
+                + " left join sync_watermark m on m.series = 'stock_metric' and m.\"key\" = d.\"key\""
+                + " where d.series = 'stock_daily' and (m.last_date is null or m.last_date < d.last_date)";
+        return jdbcTemplate.query(query, new BeanPropertyRowMapper<>(CodeDateRange.class));
+    }
+
+    /**
+     * Closing prices of each stock after its last metric, preceded by the last {@code lookbackRows} prices up to
+     * it, ordered by date. Only code, date and closing price are set.
+     */
+    public Map<String, List<StockDaily>> findClosingPrices(List<CodeDateRange> codes, int lookbackRows) {
+        String query = "select d.code, d.\"date\", d.closing_price"
+                + " from unnest(?::varchar[], ?::date[]) as s (code, last_date)"
+                + " cross join lateral ("
+                + "(select p.code, p.\"date\", p.closing_price from stock_daily p"
+                + " where p.code = s.code and p.closing_price is not null and p.\"date\" <= s.last_date"
+                + " order by p.\"date\" desc limit ?)"
+                + " union all"
+                + " (select p.code, p.\"date\", p.closing_price from stock_daily p"
+                + " where p.code = s.code and p.closing_price is not null"
+                + " and (s.last_date is null or p.\"date\" > s.last_date))"
+                + ") d order by d.code, d.\"date\"";
+        Map<String, List<StockDaily>> result = new HashMap<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(query);
+            ps.setArray(1, con.createArrayOf("varchar", codes.stream().map(CodeDateRange::getCode).toArray()));
+            ps.setArray(2, con.createArrayOf("date", codes.stream()
+                    .map(it -> it.getStartDate() != null ? Date.valueOf(it.getStartDate()) : null)
+                    .toArray()));
+            ps.setInt(3, lookbackRows);
+            return ps;
+        }, rs -> {
+            StockDaily row = new StockDaily();
+            row.setCode(rs.getString("code"));
+            row.setDate(rs.getDate("date").toLocalDate());
+            row.setClosingPrice(rs.getInt("closing_price"));
+            result.computeIfAbsent(row.getCode(), it -> new ArrayList<>()).add(row);
+        });
+        return result;
+    }
+
+    /**
+     * The last stored metric of each stock, which seeds the moving averages carried forward.
+     */
+    public Map<String, StockMetric> findLastMetrics(List<CodeDateRange> codes) {
+        List<CodeDateRange> withMetrics = codes.stream().filter(it -> it.getStartDate() != null).toList();
+        if (withMetrics.isEmpty()) {
+            return Map.of();
+        }
+
+        String query = "select m.* from stock_metric m"
+                + " join unnest(?::varchar[], ?::date[]) as s (code, last_date)"
+                + " on s.code = m.code and s.last_date = m.\"date\"";
+        Map<String, StockMetric> result = new HashMap<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(query);
+            ps.setArray(1, con.createArrayOf("varchar", withMetrics.stream().map(CodeDateRange::getCode).toArray()));
+            ps.setArray(2, con.createArrayOf("date", withMetrics.stream()
+                    .map(it -> Date.valueOf(it.getStartDate()))
+                    .toArray()));
+            return ps;
+        }, new BeanPropertyRowMapper<>(StockMetric.class)).forEach(it -> result.put(it.getCode(), it));
+        return result;
+    }
+
+    /**
+     * Recomputes the market-wide aggregates of every date from {@code from} up to, but excluding, {@code to}.
+     */
+    public int upsertMarketMetrics(LocalDate from, LocalDate to) {
+        return jdbcTemplate.update(UPSERT_MARKET_METRICS_QUERY, Date.valueOf(from), Date.valueOf(to));
+    }
+}
@@ -0,0 +1,85 @@
+package id.taufiq.pd_scraper.repository;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.config.AppProperties.StorageProfile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the approximate metric columns of the daily tables to the types of {@code app.storage-profile}.
+ * <p>
+ * The entities keep parsing every value into an exact BigDecimal, so the {@code numeric} default stores what
+ * Pasardana sent. The {@code compact} profile stores returns, yields and durations as fixed-width float8, and
+ * fund units as int8, instead of variable-length numeric, rounding them on write. Prices, volumes and amounts
+ * stay numeric. Switching profiles rewrites the affected tables under an exclusive lock.
+ */
+@Slf4j
+@Component
+@DependsOn("dailyPartitionManager")
+public class StorageProfileMigration implements InitializingBean {
+
+    private static final Map<String, Map<String, String>> COMPACT_COLUMN_TYPES = new LinkedHashMap<>();
+
+    static {
+        Map<String, String> bondDaily = new LinkedHashMap<>();
+        List.of("one_day_return", "one_week_return", "mtd_return", "one_month_return", "three_month_return",
+                        "six_month_return", "ytd_return", "one_year_return", "three_year_return", "five_year_return",
+                        "ten_year_return", "inception_return", "ttm", "ytm", "current_yield", "modified_duration")
+                .forEach(it -> bondDaily.put(it, "float8"));
+        COMPACT_COLUMN_TYPES.put("bond_daily", bondDaily);
+        COMPACT_COLUMN_TYPES.put("fund_daily", Map.of("daily_return", "float8"));
+        COMPACT_COLUMN_TYPES.put("fund_unit", Map.of("value", "int8"));
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AppProperties appProperties;
+
+    public StorageProfileMigration(JdbcTemplate jdbcTemplate, AppProperties appProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.appProperties = appProperties;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        boolean compact = appProperties.getStorageProfile() == StorageProfile.COMPACT;
+        COMPACT_COLUMN_TYPES.forEach((table, columnTypes) -> {
+            Map<String, String> currentTypes = findColumnTypes(table);
+            List<String> alterations = columnTypes.entrySet().stream()
+                    .filter(it -> currentTypes.containsKey(it.getKey()))
+                    .filter(it -> !currentTypes.get(it.getKey()).equals(compact ? it.getValue() : "numeric"))
+                    .map(it -> {
+                        String type = compact ? it.getValue() : "numeric";
+                        return "alter column \"" + it.getKey() + "\" type " + type
+                                + " using \"" + it.getKey() + "\"::" + type;
+                    })
+                    .toList();
+            if (alterations.isEmpty()) {
+                return;
+            }
+
+            log.info("Converting {} columns of {} to the {} storage profile",
+                    alterations.size(), table, appProperties.getStorageProfile().name().toLowerCase());
+            long start = System.currentTimeMillis();
+            jdbcTemplate.execute("alter table " + table + " " + String.join(", ", alterations));
+            log.info("Converted {} in {} ms", table, System.currentTimeMillis() - start);
+        });
+    }
+
+    private Map<String, String> findColumnTypes(String table) {
+        String query = "select column_name, udt_name from information_schema.columns"
+                + " where table_schema = current_schema() and table_name = ?";
+        Map<String, String> result = new HashMap<>();
+        jdbcTemplate.query(query, rs -> {
+            result.put(rs.getString("column_name"), rs.getString("udt_name"));
+        }, table);
+        return result;
+    }
+}
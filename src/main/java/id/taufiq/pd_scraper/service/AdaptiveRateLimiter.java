@@ -0,0 +1,108 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces Pasardana requests with a token bucket and limits in-flight requests with an AIMD concurrency limit:
+ * the limit grows by one per window of fast successful responses and is halved on slow responses,
+ * throttling or server errors.
+ */
+@Slf4j
+@Component
+public class AdaptiveRateLimiter implements MeterBinder {
+
+    private final AppProperties.RateLimit properties;
+    private final long intervalNanos;
+
+    private long nextPermitNanos = System.nanoTime();
+    private double limit;
+    private int inFlight;
+
+    public AdaptiveRateLimiter(AppProperties appProperties) {
+        this.properties = appProperties.getRateLimit();
+        this.intervalNanos = properties.getRequestsPerSecond() > 0
+                ? (long) (TimeUnit.SECONDS.toNanos(1) / properties.getRequestsPerSecond())
+                : 0;
+        this.limit = Math.max(properties.getMinConcurrency(), properties.getInitialConcurrency());
+    }
+
+    public void acquire() throws InterruptedException {
+        acquireToken();
+        synchronized (this) {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+            inFlight++;
+        }
+    }
+
+    /**
+     * Releases a slot taken by {@link #acquire()} without adjusting the limit.
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    public synchronized void onSuccess(long latencyNanos) {
+        if (latencyNanos > properties.getLatencyThreshold().toNanos()) {
+            decrease("slow response");
+        } else if (inFlight >= (int) limit - 1) {
+            limit = Math.min(properties.getMaxConcurrency(), limit + 1 / limit);
+        }
+    }
+
+    public synchronized void onOverload(String reason) {
+        decrease(reason);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("pasardana.http.concurrency.limit", this, AdaptiveRateLimiter::getLimit)
+                .description("Current adaptive concurrency limit for Pasardana requests")
+                .register(registry);
+        Gauge.builder("pasardana.http.concurrency.in.flight", this, AdaptiveRateLimiter::getInFlight)
+                .description("Pasardana requests currently in flight")
+                .register(registry);
+    }
+
+    private void decrease(String reason) {
+        double decreased = Math.max(properties.getMinConcurrency(), limit / 2);
+        if ((int) decreased < (int) limit) {
+            log.info("Reducing Pasardana concurrency limit from {} to {} after {}", (int) limit, (int) decreased, reason);
+        }
+        limit = decreased;
+    }
+
+    private void acquireToken() throws InterruptedException {
+        if (intervalNanos == 0) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long permitAt = Math.max(nextPermitNanos, now - intervalNanos * Math.max(0, properties.getBurst() - 1));
+            nextPermitNanos = permitAt + intervalNanos;
+            waitNanos = permitAt - now;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.model.dao.CodeDateRange;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Splits the missing date range of every key into windows of {@code app.backfill-window} and enqueues them
+ * as scrape jobs that can be fetched, committed and retried independently.
+ * <p>
+ * Windows of a key run concurrently, so a later window can advance the watermark past one that failed for
+ * good. Planning therefore also puts the failed windows of every key back in the queue, otherwise the gap they
+ * left would never be fetched again.
+ */
+@Slf4j
+@Component
+public class BackfillPlanner {
+
+    private final ScrapeJobQueue scrapeJobQueue;
+    private final AppProperties appProperties;
+
+    public BackfillPlanner(ScrapeJobQueue scrapeJobQueue, AppProperties appProperties) {
+        this.scrapeJobQueue = scrapeJobQueue;
+        this.appProperties = appProperties;
+    }
+
+    public <K> void plan(String series, Collection<K> keys, Function<K, LocalDate> startDateOf, LocalDate endDate) {
+        List<CodeDateRange> windows = new ArrayList<>();
+        for (K key : keys) {
+            windows.addAll(split(String.valueOf(key), startDateOf.apply(key), endDate));
+        }
+        List<String> keyStrings = keys.stream().map(String::valueOf).toList();
+        int retried = scrapeJobQueue.retryFailed(series, keyStrings);
+        scrapeJobQueue.enqueue(series, windows);
+        log.info("Planned {} {} windows, retrying {} failed ones, {} jobs pending",
+                windows.size(), series, retried, scrapeJobQueue.countPending(series, keyStrings));
+    }
+
+    private List<CodeDateRange> split(String code, LocalDate startDate, LocalDate endDate) {
+        Period window = appProperties.getBackfillWindow();
+        List<CodeDateRange> windows = new ArrayList<>();
+
+        LocalDate windowStart = startDate;
+        while (!windowStart.isAfter(endDate)) {
+            LocalDate windowEnd = windowStart.plus(window).minusDays(1);
+            if (windowEnd.isBefore(windowStart) || windowEnd.isAfter(endDate)) {
+                windowEnd = endDate;
+            }
+            windows.add(new CodeDateRange(code, windowStart, windowEnd));
+            windowStart = windowEnd.plusDays(1);
+        }
+        return windows;
+    }
+}
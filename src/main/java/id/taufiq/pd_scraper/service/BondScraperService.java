@@ -1,19 +1,18 @@
 package id.taufiq.pd_scraper.service;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import id.taufiq.pd_scraper.metrics.ScrapeMetrics;
+import id.taufiq.pd_scraper.model.AssetClass;
+import id.taufiq.pd_scraper.model.dao.ScrapeJob;
 import id.taufiq.pd_scraper.model.entity.Bond;
 import id.taufiq.pd_scraper.model.entity.BondDaily;
 import id.taufiq.pd_scraper.repository.CustomRepository;
+import id.taufiq.pd_scraper.service.ClusterCoordinator.Shard;
+import id.taufiq.pd_scraper.service.MasterDataCache.MasterData;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
 
-import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -22,47 +21,67 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
-
-import static java.util.stream.Collectors.toMap;
+import java.util.TreeMap;
 
 @Slf4j
 @Service
 public class BondScraperService {
 
-    private static final String BOND_PROFILE_URL = "https://pasardana.id/api/BondAPI/GetBondProfile?all=all";
-    private static final String BOND_ID_URL = "https://pasardana.id/api/bondAPI/GetBondsId";
-    private static final String BOND_DATA_ADDITION_URL = "https://pasardana.id/api/BondAPI/GetBondDataAddition?code=%s&datestart=%s&dateend=%s&complete=complete";
+    private static final String BOND_PROFILE_URL = "/api/BondAPI/GetBondProfile?all=all";
+    private static final String BOND_ID_URL = "/api/bondAPI/GetBondsId";
+    private static final String BOND_DATA_ADDITION_URL = "/api/BondAPI/GetBondDataAddition?code=%s&datestart=%s&dateend=%s&complete=complete";
     private static final LocalDate DEFAULT_BOND_DAILY_START_DATE = LocalDate.of(2000, 1, 1);
+    private static final String BOND_DAILY_SERIES = "bond_daily";
 
-    private final ObjectMapper objectMapper;
-    private final RestClient restClient;
+    private final PasardanaClient pasardanaClient;
     private final CustomRepository customRepository;
-
-    public BondScraperService(ObjectMapper objectMapper, RestClient restClient, CustomRepository customRepository) {
-        this.objectMapper = objectMapper;
-        this.restClient = restClient;
+    private final ScrapeMetrics scrapeMetrics;
+    private final BackfillPlanner backfillPlanner;
+    private final ScrapeJobQueue scrapeJobQueue;
+    private final ClusterCoordinator clusterCoordinator;
+    private final MasterDataCache masterDataCache;
+    private final DailyWriter dailyWriter;
+
+    /**
+     * Bond ids of the latest sync, also used by retried jobs picked up between syncs.
+     */
+    private volatile Map<String, Integer> bondIdsByCode = Collections.emptyMap();
+
+    public BondScraperService(PasardanaClient pasardanaClient, CustomRepository customRepository,
+            ScrapeMetrics scrapeMetrics, BackfillPlanner backfillPlanner, ScrapeJobQueue scrapeJobQueue,
+            ClusterCoordinator clusterCoordinator, MasterDataCache masterDataCache, DailyWriter dailyWriter) {
+        this.pasardanaClient = pasardanaClient;
         this.customRepository = customRepository;
-
-        scrapeAll();
+        this.scrapeMetrics = scrapeMetrics;
+        this.backfillPlanner = backfillPlanner;
+        this.scrapeJobQueue = scrapeJobQueue;
+        this.clusterCoordinator = clusterCoordinator;
+        this.masterDataCache = masterDataCache;
+        this.dailyWriter = dailyWriter;
+        scrapeJobQueue.register(BOND_DAILY_SERIES, AssetClass.BOND, this::scrapeBondDailyJob);
     }
 
     @Scheduled(cron = "#{@appProperties.syncCron}")
-    private void scrapeAll() {
+    void scrapeAll() {
         LocalDateTime startTime = LocalDateTime.now();
-        Map<String, Integer> bondIdsByCode = fetchBondIdsByCode();
-        scrapeBonds(bondIdsByCode);
-        scrapeBondDaily(startTime, bondIdsByCode);
+        bondIdsByCode = fetchBondIdsByCode();
+        clusterCoordinator.runSharded("bond", startTime, this::scrapeBonds,
+                shard -> scrapeBondDaily(startTime, shard));
     }
 
-    private void scrapeBonds(Map<String, Integer> bondIdsByCode) {
+    private void scrapeBonds() {
         log.info("Starting to scrape bonds");
         LocalDateTime startTime = LocalDateTime.now();
 
         try {
-            String rawBonds = get(BOND_PROFILE_URL);
-            List<Bond> bonds = objectMapper.readValue(rawBonds, new TypeReference<>() {
-            });
+            // the bond ids are written with the bonds, so a changed mapping has to update them too
+            MasterData<Bond> bondList = masterDataCache.fetch("bonds", BOND_PROFILE_URL, Bond.class, Bond::getCode,
+                    new TreeMap<>(bondIdsByCode));
+            if (bondList == null) {
+                scrapeMetrics.recordStage("bonds", startTime);
+                return;
+            }
+            List<Bond> bonds = bondList.items();
 
             log.info("Found {} bonds", bonds.size());
 
@@ -72,26 +91,25 @@ public class BondScraperService {
             List<Bond> bondsToUpdate = new ArrayList<>();
             List<Bond> bondsToInsert = new ArrayList<>();
 
+            bonds.removeIf(bond -> bond.getCode() == null || bond.getCode().isBlank());
             for (Bond bond : bonds) {
-                String code = bond.getCode();
-                if (code == null || code.isBlank()) {
-                    log.debug("Skipping bond without code");
-                    continue;
-                }
-
-                Integer bondId = bondIdsByCode.get(code);
+                Integer bondId = bondIdsByCode.get(bond.getCode());
                 if (bondId == null) {
-                    log.debug("No bond id found for code {}", code);
+                    log.debug("No bond id found for code {}", bond.getCode());
                 } else {
                     bond.setBondId(bondId);
                 }
+            }
 
-                if (existingBondCodes.contains(code)) {
-                    log.debug("Updating bond {}", code);
-                    bondsToUpdate.add(bond);
-                } else {
+            Set<String> changedCodes = masterDataCache.findChangedKeys(bondList);
+            for (Bond bond : bonds) {
+                String code = bond.getCode();
+                if (!existingBondCodes.contains(code)) {
                     log.debug("Inserting bond {}", code);
                     bondsToInsert.add(bond);
+                } else if (changedCodes.contains(code)) {
+                    log.debug("Updating bond {}", code);
+                    bondsToUpdate.add(bond);
                 }
             }
 
@@ -101,83 +119,71 @@ public class BondScraperService {
             if (!bondsToInsert.isEmpty()) {
                 customRepository.insertAll(bondsToInsert);
             }
+            masterDataCache.commit(bondList);
 
         } catch (Exception e) {
             log.error("Failed to scrape bonds", e);
         }
 
-        logEndTime("bonds", startTime);
+        scrapeMetrics.recordStage("bonds", startTime);
     }
 
-    private void scrapeBondDaily(LocalDateTime startTime, Map<String, Integer> bondIdsByCode) {
+    private void scrapeBondDaily(LocalDateTime startTime, Shard shard) {
         log.info("Starting to scrape bond daily");
 
         try {
             Set<String> bondCodes = customRepository.findAllExistingBondCodes();
+            bondCodes.removeIf(code -> !shard.owns(code));
             if (bondCodes.isEmpty()) {
                 log.info("No bond codes found to scrape bond daily data");
                 return;
             }
 
-            Map<String, LocalDate> maxDatePerCodeMap = customRepository.findAllBondDailyMaxDatePerCode();
+            Map<String, LocalDate> watermarkPerCode = customRepository.findAllBondDailyWatermarkPerCode();
             LocalDate endDate = startTime.toLocalDate().plusDays(1);
 
-            bondCodes.parallelStream().forEach(code -> {
-                try {
-                    LocalDate maxDate = maxDatePerCodeMap.get(code);
-                    LocalDate startDate = maxDate != null ? maxDate.plusDays(1) : DEFAULT_BOND_DAILY_START_DATE;
-
-                    if (startDate.isAfter(endDate)) {
-                        return;
-                    }
-
-                    String endpoint = String.format(BOND_DATA_ADDITION_URL, code, startDate, endDate);
-                    String bondDailyRaw = get(endpoint);
-                    List<BondDaily> bondDailies = objectMapper.readValue(bondDailyRaw, new TypeReference<List<BondDaily>>() {
-                    });
-
-                    if (bondDailies == null || bondDailies.isEmpty()) {
-                        return;
-                    }
-
-                    bondDailies.forEach(daily -> {
-                        if (daily.getBondCode() == null) {
-                            daily.setBondCode(code);
-                        }
-                        if (daily.getBondId() == null && bondIdsByCode.containsKey(code)) {
-                            daily.setBondId(bondIdsByCode.get(code));
-                        }
-                    });
-
-                    Map<String, BondDaily> uniqueDaily = bondDailies.stream()
-                            .filter(it -> it.getBondCode() != null && it.getDate() != null)
-                            .collect(toMap(
-                                    it -> it.getBondCode() + "|" + it.getDate(),
-                                    Function.identity(),
-                                    (existing, replacement) -> existing
-                            ));
-
-                    List<BondDaily> uniqueBondDailies = new ArrayList<>(uniqueDaily.values());
-                    if (!uniqueBondDailies.isEmpty()) {
-                        customRepository.insertAll(uniqueBondDailies);
-                        log.debug("Inserted {} bond daily records for code {}", uniqueBondDailies.size(), code);
-                    }
-                } catch (Exception e) {
-                    log.warn("Failed to fetch bond daily for code {}", code, e);
-                }
-            });
+            backfillPlanner.plan(BOND_DAILY_SERIES, bondCodes, code -> {
+                LocalDate watermark = watermarkPerCode.get(code);
+                return watermark != null ? watermark.plusDays(1) : DEFAULT_BOND_DAILY_START_DATE;
+            }, endDate);
+            scrapeJobQueue.drain(AssetClass.BOND, List.of(BOND_DAILY_SERIES), bondCodes);
         } catch (Exception e) {
             log.error("Failed to scrape bond daily", e);
         }
 
-        logEndTime("bond daily", startTime);
+        scrapeMetrics.recordStage("bond daily", startTime);
+    }
+
+    private void scrapeBondDailyJob(ScrapeJob job) {
+        String code = job.getKey();
+        Map<String, Integer> bondIds = bondIdsByCode;
+        String endpoint = String.format(BOND_DATA_ADDITION_URL, code, job.getStartDate(), job.getEndDate());
+        DailyWriter.Window window = dailyWriter.window(BondDaily.class, code, job.getStartDate());
+        int total = pasardanaClient.fetchInChunks(endpoint, BondDaily.class, bondDailies -> {
+            bondDailies.forEach(daily -> {
+                if (daily.getBondCode() == null) {
+                    daily.setBondCode(code);
+                }
+                if (daily.getBondId() == null && bondIds.containsKey(code)) {
+                    daily.setBondId(bondIds.get(code));
+                }
+            });
+
+            bondDailies.removeIf(it -> it.getBondCode() == null || it.getDate() == null);
+            List<BondDaily> uniqueBondDailies = customRepository.distinctByNaturalKey(bondDailies);
+            scrapeMetrics.recordDeduplicated(BOND_DAILY_SERIES, bondDailies.size() - uniqueBondDailies.size());
+            if (!uniqueBondDailies.isEmpty()) {
+                window.submit(uniqueBondDailies);
+                log.debug("Queued {} bond daily records for code {}", uniqueBondDailies.size(), code);
+            }
+        });
+        window.commit(job.getEndDate());
+        log.debug("Fetched {} bond daily records for code {}", total, code);
     }
 
     private Map<String, Integer> fetchBondIdsByCode() {
         try {
-            String rawBondIds = get(BOND_ID_URL);
-            List<BondIdResponse> bondIdResponses = objectMapper.readValue(rawBondIds, new TypeReference<>() {
-            });
+            List<BondIdResponse> bondIdResponses = pasardanaClient.fetchList(BOND_ID_URL, BondIdResponse.class);
 
             Map<String, Integer> result = new HashMap<>();
             for (BondIdResponse response : bondIdResponses) {
@@ -203,29 +209,6 @@ public class BondScraperService {
         }
     }
 
-    private String get(String endpoint) {
-        ResponseEntity<byte[]> entity = restClient.get()
-                .uri(endpoint)
-                .retrieve()
-                .toEntity(byte[].class);
-
-        if (entity.getBody() == null) {
-            throw new RuntimeException("Empty response body");
-        }
-
-        return new String(entity.getBody(), StandardCharsets.UTF_8);
-    }
-
-    private void logEndTime(String event, LocalDateTime startTime) {
-        LocalDateTime endTime = LocalDateTime.now();
-        Duration duration = Duration.between(startTime, endTime);
-
-        long minutes = duration.toMinutes();
-        long seconds = duration.minusMinutes(minutes).getSeconds();
-
-        log.info("Finished scraping {} with time spent: {} minutes {} seconds", event, minutes, seconds);
-    }
-
     private static class BondIdResponse {
         @JsonProperty("BondId")
         private Integer bondId;
@@ -0,0 +1,22 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.repository.DailyChange;
+
+import java.util.Collection;
+
+/**
+ * Destination of the change events {@link ChangeStream} forwards for each daily write.
+ */
+public interface ChangeSink {
+
+    void publish(Collection<DailyChange> changes) throws Exception;
+
+    /**
+     * Whether the sink publishes inside the write transaction, so its changes commit or roll back with the rows.
+     * A failure then fails the write. Other sinks publish after the commit, and changes are lost if the
+     * application stops in between.
+     */
+    default boolean inTransaction() {
+        return false;
+    }
+}
@@ -0,0 +1,59 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.repository.DailyRowsWritten;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+
+/**
+ * Forwards the changes of every daily write to the configured {@link ChangeSink}s.
+ * <p>
+ * In-process consumers listen for {@link DailyRowsWritten} directly, this only serves consumers outside the
+ * application. Sinks that publish {@link ChangeSink#inTransaction() in the transaction} get the event as it is
+ * published and fail the write when they fail. The others get it once the write committed, so events of rolled
+ * back writes are never forwarded, and a failing sink is logged without failing the write that already committed.
+ */
+@Slf4j
+@Component
+public class ChangeStream {
+
+    private final List<ChangeSink> transactionalSinks;
+    private final List<ChangeSink> sinks;
+
+    public ChangeStream(ObjectProvider<ChangeSink> sinks) {
+        List<ChangeSink> allSinks = sinks.orderedStream().toList();
+        this.transactionalSinks = allSinks.stream().filter(ChangeSink::inTransaction).toList();
+        this.sinks = allSinks.stream().filter(it -> !it.inTransaction()).toList();
+        if (!allSinks.isEmpty()) {
+            log.info("Publishing daily changes to {}", allSinks.stream().map(it -> it.getClass().getSimpleName()).toList());
+        }
+    }
+
+    @EventListener
+    void onDailyRowsWrittenInTransaction(DailyRowsWritten event) {
+        for (ChangeSink sink : transactionalSinks) {
+            try {
+                sink.publish(event.changes().values());
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to publish " + event.changes().size() + " changes of "
+                        + event.table() + " to " + sink.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    void onDailyRowsWritten(DailyRowsWritten event) {
+        for (ChangeSink sink : sinks) {
+            try {
+                sink.publish(event.changes().values());
+            } catch (Exception e) {
+                log.warn("Failed to publish {} changes of {} to {}",
+                        event.changes().size(), event.table(), sink.getClass().getSimpleName(), e);
+            }
+        }
+    }
+}
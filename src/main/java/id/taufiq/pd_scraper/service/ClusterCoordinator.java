@@ -0,0 +1,179 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.repository.ClusterRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coordinates a sync run across replicas through the {@code sync_run} and {@code sync_shard} lease tables.
+ * <p>
+ * The first node to register a run becomes its coordinator: it syncs the master data once and publishes
+ * {@code app.cluster.shard-count} shards. Every node then claims shards with {@code skip locked} and syncs the keys
+ * hashing into them. Leases are renewed while a node is alive, so shards of a node that died are claimed again
+ * once their lease expires, and a run whose coordinator died before publishing shards is taken over by a waiting
+ * node. Leases are held by the {@link AppProperties.Cluster#getInstanceId() instance id} of the node, so a node
+ * restarted under the same hostname does not keep its predecessor's leases alive. Renewals run on a thread of
+ * their own, a sync busy on the scheduling pool must not delay them.
+ * <p>
+ * A run is identified by the cron fire time it belongs to rather than by the clock of the node starting it,
+ * so nodes with skewed clocks, and a startup sync next to the cron, join the same run.
+ */
+@Slf4j
+@Component
+public class ClusterCoordinator implements DisposableBean {
+
+    private static final Duration RUN_RETENTION = Duration.ofDays(7);
+    private static final long SHARD_POLL_MILLIS = 5000;
+    private static final List<Duration> FIRE_TIME_LOOKBACKS = List.of(Duration.ofMinutes(1), Duration.ofHours(1),
+            Duration.ofDays(1), Duration.ofDays(32), Duration.ofDays(366));
+
+    private final ClusterRepository clusterRepository;
+    private final AppProperties.Cluster properties;
+    private final String syncCron;
+    private final ScheduledExecutorService renewalScheduler;
+
+    public ClusterCoordinator(ClusterRepository clusterRepository, AppProperties appProperties) {
+        this.clusterRepository = clusterRepository;
+        this.properties = appProperties.getCluster();
+        this.syncCron = appProperties.getSyncCron();
+        this.renewalScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lease-renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (properties.isEnabled()) {
+            long periodMillis = Math.max(1, properties.getLeaseTtl().toMillis() / 3);
+            renewalScheduler.scheduleWithFixedDelay(this::renewLeases, periodMillis, periodMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void runSharded(String syncName, LocalDateTime startTime, Runnable coordinatorWork,
+            Consumer<Shard> shardWork) {
+        if (!properties.isEnabled()) {
+            coordinatorWork.run();
+            shardWork.accept(Shard.ALL);
+            return;
+        }
+
+        String nodeId = properties.getInstanceId();
+        String runId = runId(startTime);
+
+        Integer shardCount;
+        if (clusterRepository.tryCreateRun(syncName, runId, nodeId, properties.getLeaseTtl())) {
+            log.info("Node {} coordinates {} run {}", nodeId, syncName, runId);
+            shardCount = coordinate(syncName, runId, coordinatorWork);
+        } else {
+            shardCount = awaitShards(syncName, runId, nodeId, coordinatorWork);
+            if (shardCount == null) {
+                log.warn("Gave up waiting for the coordinator of {} run {}", syncName, runId);
+                return;
+            }
+        }
+
+        Integer shard;
+        while ((shard = clusterRepository.claimShard(syncName, runId, nodeId, properties.getLeaseTtl(),
+                properties.getMaxShardAttempts())) != null) {
+            log.info("Node {} syncing {} shard {}/{}", nodeId, syncName, shard, shardCount);
+            try {
+                shardWork.accept(new Shard(shard, shardCount));
+                clusterRepository.completeShard(syncName, runId, shard);
+            } catch (Exception e) {
+                log.warn("Failed to sync {} shard {}, releasing it", syncName, shard, e);
+                clusterRepository.releaseShard(syncName, runId, shard);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        renewalScheduler.shutdownNow();
+    }
+
+    private void renewLeases() {
+        try {
+            clusterRepository.renewLeases(properties.getInstanceId(), properties.getLeaseTtl());
+        } catch (Exception e) {
+            log.warn("Failed to renew leases of node {}", properties.getInstanceId(), e);
+        }
+    }
+
+    private int coordinate(String syncName, String runId, Runnable coordinatorWork) {
+        clusterRepository.deleteRunsCreatedBefore(RUN_RETENTION);
+        int shardCount = Math.max(1, properties.getShardCount());
+        try {
+            coordinatorWork.run();
+        } finally {
+            clusterRepository.createShards(syncName, runId, shardCount);
+        }
+        return shardCount;
+    }
+
+    /**
+     * The latest fire time of the sync cron at or before the start, or the start date when the cron is disabled.
+     */
+    private String runId(LocalDateTime startTime) {
+        if (!CronExpression.isValidExpression(syncCron)) {
+            return startTime.toLocalDate().toString();
+        }
+
+        CronExpression cron = CronExpression.parse(syncCron);
+        for (Duration lookback : FIRE_TIME_LOOKBACKS) {
+            LocalDateTime fireTime = cron.next(startTime.minus(lookback));
+            if (fireTime == null || fireTime.isAfter(startTime)) {
+                continue;
+            }
+            LocalDateTime next;
+            while ((next = cron.next(fireTime)) != null && !next.isAfter(startTime)) {
+                fireTime = next;
+            }
+            return fireTime.toString();
+        }
+        return startTime.toLocalDate().toString();
+    }
+
+    /**
+     * Waits for the coordinator to publish the shards, taking over its work when its lease expires first.
+     */
+    private Integer awaitShards(String syncName, String runId, String nodeId, Runnable coordinatorWork) {
+        long deadline = System.currentTimeMillis() + properties.getCoordinatorTimeout().toMillis();
+        while (System.currentTimeMillis() < deadline) {
+            Integer shardCount = clusterRepository.findShardCount(syncName, runId);
+            if (shardCount != null) {
+                return shardCount;
+            }
+            if (clusterRepository.tryTakeOverRun(syncName, runId, nodeId, properties.getLeaseTtl())) {
+                log.warn("Node {} takes over {} run {} from a coordinator whose lease expired",
+                        nodeId, syncName, runId);
+                return coordinate(syncName, runId, coordinatorWork);
+            }
+            try {
+                Thread.sleep(SHARD_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public record Shard(int index, int count) {
+
+        public static final Shard ALL = new Shard(0, 1);
+
+        public boolean owns(Object key) {
+            return count == 1 || Math.floorMod(String.valueOf(key).hashCode(), count) == index;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.repository.CustomRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Write stage of the daily scrape pipeline.
+ * <p>
+ * Fetchers hand parsed chunks to a bounded queue that a small fixed pool of writer threads drains, so only the
+ * writers hold database connections. Each writer coalesces the queued chunks of the same table into one
+ * {@link CustomRepository#copyAll(List)} call of about {@code app.writer.batch-rows} rows. When the database falls
+ * behind the queue fills up and {@link #submit(List)} blocks the fetchers until there is room again.
+ */
+@Slf4j
+@Component
+public class DailyWriter implements MeterBinder, DisposableBean {
+
+    /**
+     * Days before today that may still receive late rows, an empty window is only taken as synced up to there.
+     */
+    private static final int SETTLE_DAYS = 7;
+
+    private final CustomRepository customRepository;
+    private final BlockingQueue<WriteRequest> queue;
+    private final int batchRows;
+    private final List<Thread> writers = new ArrayList<>();
+    private volatile boolean closed;
+
+    public DailyWriter(CustomRepository customRepository, AppProperties appProperties) {
+        this.customRepository = customRepository;
+        AppProperties.Writer writer = appProperties.getWriter();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, writer.getQueueCapacity()));
+        this.batchRows = Math.max(1, writer.getBatchRows());
+
+        int threads = Math.max(1, writer.getThreads());
+        for (int i = 1; i <= threads; i++) {
+            Thread thread = new Thread(this::run, "writer-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            writers.add(thread);
+        }
+        log.info("Started {} writer threads with a queue of {} chunks", threads, writer.getQueueCapacity());
+    }
+
+    /**
+     * Queues the rows for writing, blocking while the queue is full. The returned future completes once the rows
+     * are committed, or exceptionally when they could not be written or the writer shut down first.
+     */
+    public CompletableFuture<Void> submit(List<?> rows) {
+        if (rows.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Daily writer is shut down"));
+        }
+
+        WriteRequest request = new WriteRequest(rows.get(0).getClass(), rows, new CompletableFuture<>());
+        try {
+            queue.put(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing rows for writing", e);
+        }
+        if (closed) {
+            failQueued();
+        }
+        return request.future();
+    }
+
+    /**
+     * Starts collecting the writes of one scrape window of a key. Its watermark is only advanced by
+     * {@link Window#commit(LocalDate)}, so a response failing part way never leaves it past rows that were not
+     * written, whatever order the response lists the dates in.
+     */
+    public Window window(Class<?> type, String key, LocalDate windowStart) {
+        return new Window(type, key, windowStart);
+    }
+
+    /**
+     * Waits for the submitted writes, rethrowing the first failure.
+     */
+    public static void awaitAll(List<CompletableFuture<Void>> writes) {
+        try {
+            CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<WriteRequest> requests = new ArrayList<>();
+            try {
+                requests.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            int rows = requests.get(0).rows().size();
+            WriteRequest next;
+            while (rows < batchRows && (next = queue.poll()) != null) {
+                requests.add(next);
+                rows += next.rows().size();
+            }
+
+            Map<Class<?>, List<WriteRequest>> requestsByType = new LinkedHashMap<>();
+            requests.forEach(it -> requestsByType.computeIfAbsent(it.type(), type -> new ArrayList<>()).add(it));
+            try {
+                requestsByType.values().forEach(this::write);
+            } catch (Throwable e) {
+                // keep the thread alive, an Error must not leave the fetchers waiting on these futures forever
+                log.error("Writer failed on {} chunks", requests.size(), e);
+                requests.forEach(it -> it.future().completeExceptionally(e));
+            }
+        }
+    }
+
+    private void write(List<WriteRequest> requests) {
+        List<Object> rows = new ArrayList<>();
+        requests.forEach(it -> rows.addAll(it.rows()));
+        try {
+            customRepository.copyAll(rows);
+            requests.forEach(it -> it.future().complete(null));
+            log.debug("Wrote {} {} rows from {} chunks", rows.size(), requests.get(0).type().getSimpleName(),
+                    requests.size());
+        } catch (Exception e) {
+            if (requests.size() == 1) {
+                requests.get(0).future().completeExceptionally(e);
+                return;
+            }
+            log.debug("Coalesced write of {} chunks failed, writing them one by one", requests.size(), e);
+            requests.forEach(it -> write(List.of(it)));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("scrape.writer.queue", queue, BlockingQueue::size)
+                .description("Chunks waiting for a writer")
+                .register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        closed = true;
+        writers.forEach(Thread::interrupt);
+        failQueued();
+    }
+
+    private void failQueued() {
+        List<WriteRequest> requests = new ArrayList<>();
+        queue.drainTo(requests);
+        requests.forEach(it -> it.future().completeExceptionally(
+                new IllegalStateException("Daily writer shut down before the rows were written")));
+    }
+
+    public class Window {
+
+        private final Class<?> type;
+        private final String key;
+        private final LocalDate windowStart;
+        private final List<CompletableFuture<Void>> writes = new ArrayList<>();
+        private LocalDate lastDate;
+
+        private Window(Class<?> type, String key, LocalDate windowStart) {
+            this.type = type;
+            this.key = key;
+            this.windowStart = windowStart;
+        }
+
+        public void submit(List<?> rows) {
+            LocalDate maxDate = customRepository.findMaxDate(rows);
+            if (maxDate != null && (lastDate == null || maxDate.isAfter(lastDate))) {
+                lastDate = maxDate;
+            }
+            writes.add(DailyWriter.this.submit(rows));
+        }
+
+        /**
+         * Waits for every submitted write, then advances the watermark of the key to the latest date written.
+         * The fetched window is taken as complete up to {@link #SETTLE_DAYS} before today even where it returned
+         * no rows, so a key without rows, like a delisted stock, is not planned from its old start again.
+         */
+        public void commit(LocalDate windowEnd) {
+            awaitAll(writes);
+            LocalDate settled = LocalDate.now().minusDays(SETTLE_DAYS);
+            LocalDate syncedUntil = windowEnd.isBefore(settled) ? windowEnd : settled;
+            if (lastDate != null && lastDate.isAfter(syncedUntil)) {
+                syncedUntil = lastDate;
+            }
+            if (lastDate != null || !syncedUntil.isBefore(windowStart)) {
+                customRepository.advanceWatermarks(type, Map.of(key, syncedUntil));
+            }
+        }
+    }
+
+    private record WriteRequest(Class<?> type, List<?> rows, CompletableFuture<Void> future) {
+    }
+}
@@ -0,0 +1,50 @@
+package id.taufiq.pd_scraper.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.repository.DailyChange;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * Appends every change as one JSON line to {@code app.changes.file}, flushed after each write. Rotating or
+ * truncating the file is left to the consumer.
+ */
+@Component
+@ConditionalOnProperty(name = "app.changes.sink", havingValue = "file")
+public class FileChangeSink implements ChangeSink, DisposableBean {
+
+    private final ObjectMapper objectMapper;
+    private final BufferedWriter writer;
+
+    public FileChangeSink(ObjectMapper objectMapper, AppProperties appProperties) throws IOException {
+        this.objectMapper = objectMapper;
+        Path path = Path.of(appProperties.getChanges().getFile()).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public synchronized void publish(Collection<DailyChange> changes) throws IOException {
+        for (DailyChange change : changes) {
+            writer.write(objectMapper.writeValueAsString(change));
+            writer.newLine();
+        }
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void destroy() throws IOException {
+        writer.close();
+    }
+}
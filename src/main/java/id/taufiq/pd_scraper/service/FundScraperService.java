@@ -1,47 +1,63 @@
 package id.taufiq.pd_scraper.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import id.taufiq.pd_scraper.metrics.ScrapeMetrics;
+import id.taufiq.pd_scraper.model.AssetClass;
 import id.taufiq.pd_scraper.model.dao.CodeDate;
+import id.taufiq.pd_scraper.model.dao.ScrapeJob;
 import id.taufiq.pd_scraper.model.entity.Fund;
 import id.taufiq.pd_scraper.model.entity.FundAum;
 import id.taufiq.pd_scraper.model.entity.FundDaily;
 import id.taufiq.pd_scraper.model.entity.FundUnit;
 import id.taufiq.pd_scraper.repository.CustomRepository;
+import id.taufiq.pd_scraper.service.ClusterCoordinator.Shard;
+import id.taufiq.pd_scraper.service.MasterDataCache.MasterData;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
 
-import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class FundScraperService {
 
-    private static final String FUND_SEARCH_URL = "https://pasardana.id/api/FundAPI/SearchFund";
-    private static final String FUND_NAV_HISTORIC_URL = "https://pasardana.id/api/FundAPI/GetFundNAVHistoricData?fundId=%s&dateBegin=%s&dateEnd=%s";
-    private static final String FUND_AUM_HISTORIC_URL = "https://pasardana.id/api/FundAPI/GetFundAUMHistoricData?fundId=%s&dateBegin=%s&dateEnd=%s";
-    private static final String FUND_UNIT_HISTORIC_URL = "https://pasardana.id/api/FundAPI/GetFundUPHistoricData?fundId=%s&dateBegin=%s&dateEnd=%s";
+    private static final String FUND_SEARCH_URL = "/api/FundAPI/SearchFund";
+    private static final String FUND_NAV_HISTORIC_URL = "/api/FundAPI/GetFundNAVHistoricData?fundId=%s&dateBegin=%s&dateEnd=%s";
+    private static final String FUND_AUM_HISTORIC_URL = "/api/FundAPI/GetFundAUMHistoricData?fundId=%s&dateBegin=%s&dateEnd=%s";
+    private static final String FUND_UNIT_HISTORIC_URL = "/api/FundAPI/GetFundUPHistoricData?fundId=%s&dateBegin=%s&dateEnd=%s";
+    private static final int PROGRESS_LOG_INTERVAL = 500;
 
-    private final ObjectMapper objectMapper;
-    private final RestClient restClient;
+    private final PasardanaClient pasardanaClient;
     private final CustomRepository customRepository;
-
-    public FundScraperService(ObjectMapper objectMapper, RestClient restClient, CustomRepository customRepository) {
-        this.objectMapper = objectMapper;
-        this.restClient = restClient;
+    private final ScrapeMetrics scrapeMetrics;
+    private final BackfillPlanner backfillPlanner;
+    private final ScrapeJobQueue scrapeJobQueue;
+    private final ClusterCoordinator clusterCoordinator;
+    private final MasterDataCache masterDataCache;
+    private final DailyWriter dailyWriter;
+
+    public FundScraperService(PasardanaClient pasardanaClient, CustomRepository customRepository,
+            ScrapeMetrics scrapeMetrics, BackfillPlanner backfillPlanner, ScrapeJobQueue scrapeJobQueue,
+            ClusterCoordinator clusterCoordinator, MasterDataCache masterDataCache, DailyWriter dailyWriter) {
+        this.pasardanaClient = pasardanaClient;
         this.customRepository = customRepository;
+        this.scrapeMetrics = scrapeMetrics;
+        this.backfillPlanner = backfillPlanner;
+        this.scrapeJobQueue = scrapeJobQueue;
+        this.clusterCoordinator = clusterCoordinator;
+        this.masterDataCache = masterDataCache;
+        this.dailyWriter = dailyWriter;
+        for (FundSeries series : FundSeries.values()) {
+            scrapeJobQueue.register(series.table, AssetClass.FUND, job -> scrapeFundSeriesJob(series, job));
+        }
     }
 
     @Scheduled(cron = "#{@appProperties.syncCron}")
-    private void scrapeAll() {
+    void scrapeAll() {
         LocalDateTime startTime = LocalDateTime.now();
 
         Set<Integer> allFundIds = null;
@@ -51,26 +67,28 @@ public class FundScraperService {
             log.warn("Failed to fetch funds upfront, methods will fallback to individual fetch", e);
         }
 
-        scrapeFunds();
-        scrapeAllFundNavDaily(startTime, allFundIds);
-        scrapeAllFundAumDaily(startTime, allFundIds);
-        scrapeAllFundUnitDaily(startTime, allFundIds);
+        Set<Integer> fundIds = allFundIds;
+        clusterCoordinator.runSharded("fund", startTime, this::scrapeFunds,
+                shard -> scrapeAllFundSeriesDaily(startTime, fundIds, shard));
     }
 
     private void scrapeFunds() {
         log.info("Starting to scrape funds");
         LocalDateTime startTime = LocalDateTime.now();
         try {
-            String getAll = get(FUND_SEARCH_URL);
-            List<Fund> funds = objectMapper.readValue(getAll, new TypeReference<List<Fund>>() {
-                    }).stream()
-                    .filter(it -> it.getId() != null && it.getId() > 0)
-                    .sorted(Comparator.comparing(Fund::getId))
-                    .toList();
+            MasterData<Fund> fundList = masterDataCache.fetch("funds", FUND_SEARCH_URL, Fund.class, Fund::getId);
+            if (fundList == null) {
+                scrapeMetrics.recordStage("funds", startTime);
+                return;
+            }
+            fundList.items().removeIf(it -> it.getId() == null || it.getId() <= 0);
+            fundList.items().sort(Comparator.comparing(Fund::getId));
+            List<Fund> funds = fundList.items();
             log.info("Found {} funds", funds.size());
 
             Set<Integer> existingFundIds = customRepository.findAllExistingFundIds();
             log.info("Found {} existing funds", existingFundIds.size());
+            Set<String> changedIds = masterDataCache.findChangedKeys(fundList);
 
             List<Fund> updateFunds = new ArrayList<>();
             List<Fund> insertFunds = new ArrayList<>();
@@ -78,12 +96,12 @@ public class FundScraperService {
             funds.forEach(fund -> {
                 try {
                     boolean exists = existingFundIds.contains(fund.getId());
-                    if (exists) {
-                        log.debug("Updating fund {}", fund.getId());
-                        updateFunds.add(fund);
-                    } else {
+                    if (!exists) {
                         log.debug("Inserting fund {}", fund.getId());
                         insertFunds.add(fund);
+                    } else if (changedIds.contains(String.valueOf(fund.getId()))) {
+                        log.debug("Updating fund {}", fund.getId());
+                        updateFunds.add(fund);
                     }
                 } catch (Exception e) {
                     log.warn("Failed to upsert fund for id {}", fund.getId(), e);
@@ -93,156 +111,104 @@ public class FundScraperService {
             log.info("Updating {} funds and inserting {} funds", updateFunds.size(), insertFunds.size());
             customRepository.updateAll(updateFunds);
             customRepository.insertAll(insertFunds);
+            masterDataCache.commit(fundList);
         } catch (Exception e) {
             log.error("Failed to scrape funds", e);
         }
-        logEndTime("funds", startTime);
+        scrapeMetrics.recordStage("funds", startTime);
     }
 
-    private void scrapeAllFundNavDaily(LocalDateTime startTime, Set<Integer> fundIdsParam) {
-        log.info("Starting to scrape all fund nav daily");
+    /**
+     * Scrapes the nav, aum and unit history of every fund in one pass. The jobs of all three series are
+     * drained together on the fund scrape budget, so the pass takes about as long as the slowest series.
+     */
+    private void scrapeAllFundSeriesDaily(LocalDateTime startTime, Set<Integer> fundIdsParam, Shard shard) {
+        log.info("Starting to scrape all fund series daily");
 
         try {
-            Set<Integer> fundIds = fundIdsParam;
-            if (fundIds == null) {
-                fundIds = customRepository.findAllFundIds();
-            }
-            log.info("Found {} funds to scrape for daily nav", fundIds.size());
-
-            Map<Integer, LocalDate> maxDatePerIdMap = customRepository.findAllFundDailyMaxDatePerId();
+            Set<Integer> fundIds = new HashSet<>(fundIdsParam != null ? fundIdsParam : customRepository.findAllFundIds());
+            fundIds.removeIf(fundId -> !shard.owns(fundId));
+            log.info("Found {} funds to scrape for daily series", fundIds.size());
 
             LocalDate endDate = startTime.toLocalDate().plusDays(1);
 
-            fundIds.parallelStream().forEach(fundId -> {
-                try {
-                    LocalDate startDate = maxDatePerIdMap
-                            .getOrDefault(fundId, LocalDate.of(2000, 1, 1))
-                            .plusDays(1);
-
-                    log.debug("Scraping fund nav for fund id {} from {} to {}", fundId, startDate, endDate);
-                    String fundNav = get(String.format(FUND_NAV_HISTORIC_URL, fundId, startDate, endDate));
-
-                    List<FundDaily> fundDailies = objectMapper.readValue(fundNav, new TypeReference<>() {
-                    });
-
-                    if (fundDailies != null && !fundDailies.isEmpty()) {
-                        log.debug("Inserting {} fund daily data for id {}", fundDailies.size(), fundId);
-                        customRepository.insertAll(fundDailies);
-                    }
-                } catch (Exception e) {
-                    log.warn("Failed to fetch fund daily data for id {}", fundId, e);
-                }
-            });
-        } catch (Exception e) {
-            log.error("Failed to scrape fund daily data");
-        }
-        logEndTime("fund daily data", startTime);
-    }
-
-    private void scrapeAllFundAumDaily(LocalDateTime startTime, Set<Integer> fundIdsParam) {
-        log.info("Starting to scrape all fund aum daily");
-
-        try {
-            Set<Integer> fundIds = fundIdsParam;
-            if (fundIds == null) {
-                fundIds = customRepository.findAllFundIds();
+            List<String> keys = fundIds.stream().map(String::valueOf).toList();
+            Map<String, FundSeries> seriesByTable = new HashMap<>();
+            Map<FundSeries, SeriesProgress> progressBySeries = new EnumMap<>(FundSeries.class);
+            for (FundSeries series : FundSeries.values()) {
+                Map<Integer, LocalDate> watermarkPerId = findWatermarkPerId(series);
+                log.info("Found {} existing fund {} data", watermarkPerId.size(), series.label);
+                backfillPlanner.plan(series.table, fundIds,
+                        fundId -> watermarkPerId.getOrDefault(fundId, LocalDate.of(2000, 1, 1)).plusDays(1), endDate);
+                seriesByTable.put(series.table, series);
+                progressBySeries.put(series, new SeriesProgress(scrapeJobQueue.countPending(series.table, keys)));
             }
-            log.info("Found {} funds to scrape for daily aum", fundIds.size());
-
-            Map<Integer, LocalDate> maxDatePerIdMap = customRepository.findAllFundAumMaxDatePerId();
 
-            LocalDate endDate = startTime.toLocalDate().plusDays(1);
-
-            fundIds.parallelStream().forEach(fundId -> {
-                try {
-                    LocalDate startDate = maxDatePerIdMap
-                            .getOrDefault(fundId, LocalDate.of(2000, 1, 1))
-                            .plusDays(1);
-
-                    log.debug("Scraping fund aum for fund id {} from {} to {}", fundId, startDate, endDate);
-                    String fundAumRaw = get(String.format(FUND_AUM_HISTORIC_URL, fundId, startDate, endDate));
-
-                    List<FundAum> fundAum = objectMapper.readValue(fundAumRaw, new TypeReference<>() {
-                    });
-
-                    if (fundAum != null && !fundAum.isEmpty()) {
-                        log.debug("Inserting {} fund aum data for id {}", fundAum.size(), fundId);
-                        customRepository.insertAll(fundAum);
-                    }
-                } catch (Exception e) {
-                    log.warn("Failed to fetch fund aum data for id {}", fundId, e);
+            scrapeJobQueue.drain(AssetClass.FUND, seriesByTable.keySet(), keys, job -> {
+                FundSeries series = seriesByTable.get(job.getSeries());
+                SeriesProgress progress = progressBySeries.get(series);
+                int done = progress.done.incrementAndGet();
+                if (done == progress.total) {
+                    scrapeMetrics.recordStage("fund " + series.label + " data", startTime);
+                } else if (done % PROGRESS_LOG_INTERVAL == 0) {
+                    log.info("Scraped {}/{} fund {} windows", done, progress.total, series.label);
                 }
             });
         } catch (Exception e) {
-            log.error("Failed to scrape fund aum data");
+            log.error("Failed to scrape fund series data", e);
         }
-        logEndTime("fund aum data", startTime);
+        scrapeMetrics.recordStage("fund series data", startTime);
     }
 
-    private void scrapeAllFundUnitDaily(LocalDateTime startTime, Set<Integer> fundIdsParam) {
-        log.info("Starting to scrape all fund unit daily");
-
-        try {
-            Set<Integer> fundIds = fundIdsParam;
-            if (fundIds == null) {
-                fundIds = customRepository.findAllFundIds();
-            }
-            log.info("Found {} funds to scrape for daily unit", fundIds.size());
+    private void scrapeFundSeriesJob(FundSeries series, ScrapeJob job) {
+        String fundId = job.getKey();
+        log.debug("Scraping fund {} for fund id {} from {} to {}",
+                series.label, fundId, job.getStartDate(), job.getEndDate());
+        String endpoint = String.format(series.url, fundId, job.getStartDate(), job.getEndDate());
+        DailyWriter.Window window = dailyWriter.window(series.type, fundId, job.getStartDate());
+        int total = pasardanaClient.fetchInChunks(endpoint, series.type, rows -> {
+            List<?> uniqueRows = customRepository.distinctByNaturalKey(rows);
+            scrapeMetrics.recordDeduplicated(series.table, rows.size() - uniqueRows.size());
+            log.debug("Queueing {} fund {} data for id {}", uniqueRows.size(), series.label, fundId);
+            window.submit(uniqueRows);
+        });
+        window.commit(job.getEndDate());
+        log.debug("Fetched {} fund {} data for id {}", total, series.label, fundId);
+    }
 
-            List<CodeDate> maxDatePerId = customRepository.findAllFundUnitMaxDatePerId();
-            Map<Integer, LocalDate> maxDatePerIdMap = maxDatePerId.stream()
+    private Map<Integer, LocalDate> findWatermarkPerId(FundSeries series) {
+        return switch (series) {
+            case NAV -> customRepository.findAllFundDailyWatermarkPerId();
+            case AUM -> customRepository.findAllFundAumWatermarkPerId();
+            case UNIT -> customRepository.findAllFundUnitWatermarkPerId().stream()
                     .collect(Collectors.toMap(it -> Integer.valueOf(it.getCode()), CodeDate::getDate, (a, b) -> a));
-            log.info("Found {} existing daily unit data", maxDatePerId.size());
-
-            LocalDate endDate = startTime.toLocalDate().plusDays(1);
-
-            fundIds.parallelStream().forEach(fundId -> {
-                try {
-                    LocalDate startDate = maxDatePerIdMap
-                            .getOrDefault(fundId, LocalDate.of(2000, 1, 1))
-                            .plusDays(1);
-
-                    log.debug("Scraping fund unit for fund id {} from {} to {}", fundId, startDate, endDate);
-                    String fundUnitRaw = get(String.format(FUND_UNIT_HISTORIC_URL, fundId, startDate, endDate));
-
-                    List<FundUnit> fundUnit = objectMapper.readValue(fundUnitRaw, new TypeReference<>() {
-                    });
-
-                    if (fundUnit != null && !fundUnit.isEmpty()) {
-                        log.debug("Inserting {} fund unit data for id {}", fundUnit.size(), fundId);
-                        customRepository.insertAll(fundUnit);
-                    }
-                } catch (Exception e) {
-                    log.warn("Failed to fetch fund unit data for id {}", fundId, e);
-                }
-            });
-        } catch (Exception e) {
-            log.error("Failed to scrape fund unit data");
-        }
-        logEndTime("fund unit data", startTime);
+        };
     }
 
-    private String get(String endpoint) {
-        ResponseEntity<byte[]> entity = restClient.get()
-                .uri(endpoint)
-                .retrieve()
-                .toEntity(byte[].class);
-
-        if (entity.getBody() == null) {
-            throw new RuntimeException();
+    private enum FundSeries {
+        NAV("nav", "fund_daily", FUND_NAV_HISTORIC_URL, FundDaily.class),
+        AUM("aum", "fund_aum", FUND_AUM_HISTORIC_URL, FundAum.class),
+        UNIT("unit", "fund_unit", FUND_UNIT_HISTORIC_URL, FundUnit.class);
+
+        private final String label;
+        private final String table;
+        private final String url;
+        private final Class<?> type;
+
+        FundSeries(String label, String table, String url, Class<?> type) {
+            this.label = label;
+            this.table = table;
+            this.url = url;
+            this.type = type;
         }
-
-        return new String(entity.getBody(), StandardCharsets.UTF_8);
     }
 
-    private void logEndTime(String event, LocalDateTime startTime) {
-        LocalDateTime endTime = LocalDateTime.now();
-        Duration duration = Duration.between(startTime, endTime);
-
-        long minutes = duration.toMinutes();
-        long seconds = duration.minusMinutes(minutes).getSeconds();
+    private static class SeriesProgress {
+        private final int total;
+        private final AtomicInteger done = new AtomicInteger();
 
-        log.info("Finished scraping {} with time spent: {} minutes {} seconds",
-                event, minutes, seconds);
+        SeriesProgress(int total) {
+            this.total = total;
+        }
     }
 }
@@ -0,0 +1,158 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.repository.CustomRepository;
+import id.taufiq.pd_scraper.repository.DailyRowsWritten;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Least recently used cache of daily history windows read through {@link CustomRepository#findDaily}.
+ * <p>
+ * The cache is bounded by the total number of cached rows, {@code app.history-cache.max-rows}, rather than by the
+ * number of windows, where an empty window counts as one row. All windows of a code, indexed per code, are dropped
+ * once a write to its table commits on this node. A read that raced with such a write is returned but not cached,
+ * so the cache never keeps rows older than the last local commit. Writes made by other nodes are only picked up once a window
+ * is older than {@code app.history-cache.ttl}.
+ * <p>
+ * Races are detected through a fixed number of version stripes shared by hash, so reads of arbitrary codes do not
+ * grow the cache. Two codes on the same stripe only make a racing read skip the cache more often.
+ */
+@Slf4j
+@Component
+public class HistoryCache implements MeterBinder {
+
+    private static final int VERSION_STRIPES = 1024;
+
+    private final CustomRepository customRepository;
+    private final long maxRows;
+    private final long ttlNanos;
+    private final LinkedHashMap<WindowKey, Window> windows = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<SeriesKey, Set<WindowKey>> windowsBySeries = new HashMap<>();
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long cachedRows;
+
+    public HistoryCache(CustomRepository customRepository, AppProperties appProperties) {
+        this.customRepository = customRepository;
+        this.maxRows = appProperties.getHistoryCache().getMaxRows();
+        this.ttlNanos = appProperties.getHistoryCache().getTtl().toNanos();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> List<T> findDaily(Class<T> type, Object key, LocalDate from, LocalDate to) {
+        SeriesKey seriesKey = new SeriesKey(customRepository.findDailyTableName(type), String.valueOf(key));
+        WindowKey windowKey = new WindowKey(seriesKey, from, to);
+        synchronized (windows) {
+            Window cached = windows.get(windowKey);
+            if (cached != null && System.nanoTime() - cached.cachedAt() < ttlNanos) {
+                hits.incrementAndGet();
+                return (List<T>) cached.rows();
+            }
+        }
+        misses.incrementAndGet();
+
+        int stripe = stripe(seriesKey);
+        long versionBefore = versions.get(stripe);
+        long cachedAt = System.nanoTime();
+        List<T> rows = List.copyOf(customRepository.findDaily(type, key, from, to));
+        if (weight(rows) <= maxRows) {
+            synchronized (windows) {
+                if (versions.get(stripe) == versionBefore) {
+                    put(windowKey, new Window(rows, cachedAt));
+                }
+            }
+        }
+        return rows;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    void onDailyRowsWritten(DailyRowsWritten event) {
+        synchronized (windows) {
+            for (String key : event.keys()) {
+                SeriesKey seriesKey = new SeriesKey(event.table(), key);
+                versions.incrementAndGet(stripe(seriesKey));
+                Set<WindowKey> seriesWindows = windowsBySeries.remove(seriesKey);
+                if (seriesWindows != null) {
+                    for (WindowKey windowKey : seriesWindows) {
+                        cachedRows -= weight(windows.remove(windowKey).rows());
+                    }
+                }
+            }
+        }
+    }
+
+    private void put(WindowKey windowKey, Window window) {
+        Window previous = windows.put(windowKey, window);
+        cachedRows += weight(window.rows()) - (previous != null ? weight(previous.rows()) : 0);
+        windowsBySeries.computeIfAbsent(windowKey.series(), it -> new HashSet<>()).add(windowKey);
+
+        Iterator<Map.Entry<WindowKey, Window>> iterator = windows.entrySet().iterator();
+        while (cachedRows > maxRows && iterator.hasNext()) {
+            Map.Entry<WindowKey, Window> eldest = iterator.next();
+            cachedRows -= weight(eldest.getValue().rows());
+            iterator.remove();
+            Set<WindowKey> seriesWindows = windowsBySeries.get(eldest.getKey().series());
+            seriesWindows.remove(eldest.getKey());
+            if (seriesWindows.isEmpty()) {
+                windowsBySeries.remove(eldest.getKey().series());
+            }
+        }
+    }
+
+    private static int stripe(SeriesKey seriesKey) {
+        return Math.floorMod(seriesKey.hashCode(), VERSION_STRIPES);
+    }
+
+    /**
+     * Rows a window counts against {@code app.history-cache.max-rows}, at least one so empty windows are evicted.
+     */
+    private static long weight(List<?> rows) {
+        return Math.max(1, rows.size());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("history.cache.rows", this, it -> {
+                    synchronized (it.windows) {
+                        return it.cachedRows;
+                    }
+                })
+                .description("Rows held by the history cache")
+                .register(registry);
+        FunctionCounter.builder("history.cache.requests", hits, AtomicLong::get)
+                .description("History reads served by the cache or the database")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("history.cache.requests", misses, AtomicLong::get)
+                .description("History reads served by the cache or the database")
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    private record SeriesKey(String table, String key) {
+    }
+
+    private record WindowKey(SeriesKey series, LocalDate from, LocalDate to) {
+    }
+
+    private record Window(List<?> rows, long cachedAt) {
+    }
+}
@@ -0,0 +1,115 @@
+package id.taufiq.pd_scraper.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.taufiq.pd_scraper.model.dao.FetchCache;
+import id.taufiq.pd_scraper.repository.FetchCacheRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Skips master lists that did not change since the last sync.
+ * <p>
+ * A list is fetched with the ETag and Last-Modified of the previous response, and a 200 response whose body
+ * hashes the same as before is treated like a 304. When the list did change, every entity is hashed so only the
+ * rows whose fields differ from the last written version are updated. The validators and hashes are saved with
+ * {@link #commit(MasterData)} once the rows are written, so a failed write is retried on the next sync.
+ * <p>
+ * Entities enriched from another source before they are written take that source as context. A changed context
+ * invalidates the validators and content hash, so the list is fetched and compared entity by entity again.
+ */
+@Slf4j
+@Component
+public class MasterDataCache {
+
+    private final PasardanaClient pasardanaClient;
+    private final FetchCacheRepository fetchCacheRepository;
+    private final ObjectMapper objectMapper;
+
+    public MasterDataCache(PasardanaClient pasardanaClient, FetchCacheRepository fetchCacheRepository,
+            ObjectMapper objectMapper) {
+        this.pasardanaClient = pasardanaClient;
+        this.fetchCacheRepository = fetchCacheRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Returns the fetched list, or null when it is unchanged since the last commit.
+     */
+    public <T> MasterData<T> fetch(String entity, String endpoint, Class<T> type, Function<T, ?> keyOf) {
+        return fetch(entity, endpoint, type, keyOf, null);
+    }
+
+    /**
+     * Returns the fetched list, or null when neither it nor the context changed since the last commit.
+     */
+    public <T> MasterData<T> fetch(String entity, String endpoint, Class<T> type, Function<T, ?> keyOf,
+            Object context) {
+        FetchCache cache = fetchCacheRepository.findByEndpoint(endpoint);
+        if (cache == null) {
+            cache = new FetchCache(endpoint, null, null, null, null);
+        }
+        String contextHash = context != null ? hash(context) : null;
+        if (!Objects.equals(contextHash, cache.getContextHash())) {
+            cache = new FetchCache(endpoint, null, null, null, contextHash);
+        }
+        String previousHash = cache.getContentHash();
+
+        List<T> items = pasardanaClient.fetchListIfModified(endpoint, type, cache);
+        if (items == null) {
+            log.info("{} list not modified since the last sync", entity);
+            return null;
+        }
+        if (Objects.equals(previousHash, cache.getContentHash())) {
+            log.info("{} list unchanged since the last sync", entity);
+            fetchCacheRepository.save(cache);
+            return null;
+        }
+        return new MasterData<>(entity, items, keyOf, cache, new HashMap<>());
+    }
+
+    /**
+     * Returns the keys of the entities whose fields differ from the last committed version. Entities are hashed
+     * as they are at the time of the call, so enrich them before.
+     */
+    public <T> Set<String> findChangedKeys(MasterData<T> data) {
+        Map<String, String> previousHashes = fetchCacheRepository.findEntityHashes(data.entity());
+        Set<String> changedKeys = new HashSet<>();
+        for (T item : data.items()) {
+            String key = String.valueOf(data.keyOf().apply(item));
+            String hash = hash(item);
+            if (!hash.equals(previousHashes.get(key))) {
+                changedKeys.add(key);
+                data.hashes().put(key, hash);
+            }
+        }
+        log.info("Found {} changed {} out of {}", changedKeys.size(), data.entity(), data.items().size());
+        return changedKeys;
+    }
+
+    public void commit(MasterData<?> data) {
+        fetchCacheRepository.save(data.cache(), data.entity(), data.hashes());
+    }
+
+    private String hash(Object item) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(item);
+            return HexFormat.of().formatHex(PasardanaClient.sha256().digest(json));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to hash " + item, e);
+        }
+    }
+
+    public record MasterData<T>(String entity, List<T> items, Function<T, ?> keyOf, FetchCache cache,
+            Map<String, String> hashes) {
+    }
+}
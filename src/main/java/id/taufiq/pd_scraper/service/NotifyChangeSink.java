@@ -0,0 +1,55 @@
+package id.taufiq.pd_scraper.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.repository.DailyChange;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sends every change as a JSON payload on the {@code app.changes.channel} Postgres channel, all changes of a
+ * write in one round trip. The notifications are issued inside the write transaction, so Postgres delivers them
+ * exactly when the rows commit. Consumers {@code LISTEN} on the channel and only see changes while connected.
+ */
+@Component
+@ConditionalOnProperty(name = "app.changes.sink", havingValue = "notify")
+public class NotifyChangeSink implements ChangeSink {
+
+    private static final String NOTIFY_QUERY = "select pg_notify(?, payload) from unnest(?::text[]) as p (payload)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final String channel;
+
+    public NotifyChangeSink(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, AppProperties appProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.channel = appProperties.getChanges().getChannel();
+    }
+
+    @Override
+    public boolean inTransaction() {
+        return true;
+    }
+
+    @Override
+    public void publish(Collection<DailyChange> changes) throws Exception {
+        List<String> payloads = new ArrayList<>(changes.size());
+        for (DailyChange change : changes) {
+            payloads.add(objectMapper.writeValueAsString(change));
+        }
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(NOTIFY_QUERY);
+            ps.setString(1, channel);
+            ps.setArray(2, con.createArrayOf("text", payloads.toArray()));
+            return ps;
+        }, rs -> {
+        });
+    }
+}
@@ -0,0 +1,269 @@
+package id.taufiq.pd_scraper.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.metrics.ScrapeMetrics;
+import id.taufiq.pd_scraper.model.dao.FetchCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Fetches Pasardana endpoints and parses the JSON array response while it is being read,
+ * so the raw body is never buffered as a whole.
+ * Requests go through the shared {@link AdaptiveRateLimiter} and transient failures (I/O errors, 408, 429
+ * and 5xx responses) are retried with jittered exponential backoff. A retried request may hand chunks that
+ * were already consumed to the consumer again, which the upsert based writers tolerate. A body that is not
+ * valid JSON fails with a {@link MalformedResponseException} right away, as asking again would not help.
+ * <p>
+ * A request holds its limiter slot until the response headers arrive, which is what the limiter's latency
+ * samples measure, so reading the body and the writes of the chunk consumer do not count against it.
+ */
+@Slf4j
+@Component
+public class PasardanaClient {
+
+    private final ObjectMapper objectMapper;
+    private final RestClient restClient;
+    private final AppProperties appProperties;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final ScrapeMetrics scrapeMetrics;
+
+    public PasardanaClient(ObjectMapper objectMapper, RestClient restClient, AppProperties appProperties,
+            AdaptiveRateLimiter rateLimiter, ScrapeMetrics scrapeMetrics) {
+        this.objectMapper = objectMapper;
+        this.restClient = restClient;
+        this.appProperties = appProperties;
+        this.rateLimiter = rateLimiter;
+        this.scrapeMetrics = scrapeMetrics;
+    }
+
+    public <T> List<T> fetchList(String endpoint, Class<T> type) {
+        List<T> result = new ArrayList<>();
+        fetch(endpoint, type, Integer.MAX_VALUE, null, result::addAll);
+        return result;
+    }
+
+    /**
+     * Fetches the list with the validators of {@code cache} as conditional request headers, returning null when
+     * the server answers 304. Otherwise the cache is updated with the new validators and the SHA-256 of the body.
+     */
+    public <T> List<T> fetchListIfModified(String endpoint, Class<T> type, FetchCache cache) {
+        List<T> result = new ArrayList<>();
+        return fetch(endpoint, type, Integer.MAX_VALUE, cache, result::addAll) < 0 ? null : result;
+    }
+
+    /**
+     * Hands the parsed elements to the consumer in chunks of {@code app.fetch-chunk-size},
+     * returning the total number of elements read. Chunks are handed over in response order, which is not
+     * necessarily date order, so consumers must not treat a chunk as the end of the synced range.
+     */
+    public <T> int fetchInChunks(String endpoint, Class<T> type, Consumer<List<T>> chunkConsumer) {
+        return fetch(endpoint, type, Math.max(1, appProperties.getFetchChunkSize()), null, chunkConsumer);
+    }
+
+    private <T> int fetch(String endpoint, Class<T> type, int chunkSize, FetchCache cache,
+            Consumer<List<T>> chunkConsumer) {
+        AppProperties.RateLimit rateLimit = appProperties.getRateLimit();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return fetchOnce(endpoint, type, chunkSize, cache, chunkConsumer);
+            } catch (RestClientException e) {
+                if (!isTransient(e)) {
+                    throw e;
+                }
+
+                rateLimiter.onOverload(e.getClass().getSimpleName());
+                if (attempt >= rateLimit.getMaxAttempts()) {
+                    throw e;
+                }
+
+                Duration backoff = backoff(attempt, e);
+                log.debug("Retrying {} in {} ms after attempt {} failed: {}", endpoint, backoff.toMillis(), attempt,
+                        e.getMessage());
+                sleep(backoff);
+            }
+        }
+    }
+
+    private <T> int fetchOnce(String endpoint, Class<T> type, int chunkSize, FetchCache cache,
+            Consumer<List<T>> chunkConsumer) {
+        try {
+            rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to fetch " + endpoint, e);
+        }
+
+        String endpointName = endpointName(endpoint);
+        long start = System.nanoTime();
+        AtomicBoolean released = new AtomicBoolean();
+        AtomicBoolean recorded = new AtomicBoolean();
+        try {
+            Integer total = restClient.get()
+                    .uri(endpoint)
+                    .headers(headers -> {
+                        if (cache != null && cache.getEtag() != null) {
+                            headers.setIfNoneMatch(cache.getEtag());
+                        }
+                        if (cache != null && cache.getLastModified() != null) {
+                            headers.set(HttpHeaders.IF_MODIFIED_SINCE, cache.getLastModified());
+                        }
+                    })
+                    .exchange((request, response) -> {
+                        scrapeMetrics.recordRequest(endpointName, String.valueOf(response.getStatusCode().value()),
+                                System.nanoTime() - start);
+                        recorded.set(true);
+                        if (cache != null && response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+                            rateLimiter.onSuccess(System.nanoTime() - start);
+                            return -1;
+                        }
+                        if (response.getStatusCode().isError()) {
+                            throw new RestClientResponseException("Failed to fetch " + endpoint,
+                                    response.getStatusCode(), response.getStatusText(), response.getHeaders(), null, null);
+                        }
+                        rateLimiter.onSuccess(System.nanoTime() - start);
+                        if (released.compareAndSet(false, true)) {
+                            rateLimiter.release();
+                        }
+
+                        int count = 0;
+                        long bytes;
+                        long parseNanos = 0;
+                        List<T> chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+                        MessageDigest digest = cache != null ? sha256() : null;
+                        InputStream body = digest != null
+                                ? new DigestInputStream(response.getBody(), digest)
+                                : response.getBody();
+                        try (MappingIterator<T> iterator = objectMapper.readerFor(type).readValues(body)) {
+                            while (true) {
+                                long parseStart = System.nanoTime();
+                                boolean hasNext = iterator.hasNextValue();
+                                T value = hasNext ? iterator.nextValue() : null;
+                                parseNanos += System.nanoTime() - parseStart;
+                                if (!hasNext) {
+                                    break;
+                                }
+                                if (value == null) {
+                                    // a null root or array element has nothing to write
+                                    continue;
+                                }
+
+                                chunk.add(value);
+                                count++;
+                                if (chunk.size() >= chunkSize) {
+                                    chunkConsumer.accept(chunk);
+                                    chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+                                }
+                            }
+                            bytes = iterator.getParser().currentLocation().getByteOffset();
+                        } catch (JsonProcessingException e) {
+                            // thrown as is, the client would wrap it into a retried ResourceAccessException
+                            throw new MalformedResponseException("Malformed response from " + endpoint, e);
+                        }
+                        if (!chunk.isEmpty()) {
+                            chunkConsumer.accept(chunk);
+                        }
+                        if (cache != null) {
+                            cache.setEtag(response.getHeaders().getETag());
+                            cache.setLastModified(response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED));
+                            cache.setContentHash(HexFormat.of().formatHex(digest.digest()));
+                        }
+                        scrapeMetrics.recordResponse(endpointName, count, Math.max(0, bytes), parseNanos);
+                        return count;
+                    });
+            return total != null ? total : 0;
+        } catch (ResourceAccessException e) {
+            // an I/O error while reading the body comes after the status was already recorded
+            if (!recorded.get()) {
+                scrapeMetrics.recordRequest(endpointName, "IO_ERROR", System.nanoTime() - start);
+            }
+            throw e;
+        } finally {
+            if (released.compareAndSet(false, true)) {
+                rateLimiter.release();
+            }
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String endpointName(String endpoint) {
+        String path = URI.create(endpoint).getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static boolean isTransient(RestClientException e) {
+        if (e instanceof ResourceAccessException) {
+            return true;
+        }
+        if (e instanceof RestClientResponseException responseException) {
+            int status = responseException.getStatusCode().value();
+            return status == HttpStatus.REQUEST_TIMEOUT.value()
+                    || status == HttpStatus.TOO_MANY_REQUESTS.value()
+                    || responseException.getStatusCode().is5xxServerError();
+        }
+        return false;
+    }
+
+    private Duration backoff(int attempt, RestClientException e) {
+        AppProperties.RateLimit rateLimit = appProperties.getRateLimit();
+        long maxMillis = rateLimit.getMaxBackoff().toMillis();
+
+        if (e instanceof RestClientResponseException responseException && responseException.getResponseHeaders() != null) {
+            String retryAfter = responseException.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+            if (retryAfter != null && retryAfter.chars().allMatch(Character::isDigit)) {
+                return Duration.ofMillis(Math.min(maxMillis, Long.parseLong(retryAfter) * 1000));
+            }
+        }
+
+        long exponential = rateLimit.getInitialBackoff().toMillis() << Math.min(attempt - 1, 20);
+        long capped = Math.min(maxMillis, exponential);
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(capped / 2, capped + 1));
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off", e);
+        }
+    }
+
+    /**
+     * A response body that could not be parsed, which is not retried.
+     */
+    public static class MalformedResponseException extends RestClientException {
+
+        public MalformedResponseException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.model.AssetClass;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs per-code scrape tasks on the dedicated scrape executor, limiting in-flight tasks per asset class.
+ */
+@Slf4j
+@Component
+public class ScrapeExecutor implements MeterBinder {
+
+    private final ExecutorService scrapeExecutorService;
+    private final Map<AssetClass, Semaphore> permitsByAssetClass = new EnumMap<>(AssetClass.class);
+    private final Map<AssetClass, AtomicInteger> pendingByAssetClass = new EnumMap<>(AssetClass.class);
+
+    public ScrapeExecutor(ExecutorService scrapeExecutorService, AppProperties appProperties) {
+        this.scrapeExecutorService = scrapeExecutorService;
+
+        for (AssetClass assetClass : AssetClass.values()) {
+            int concurrency = Math.max(1, appProperties.getScrapeConcurrency(assetClass));
+            permitsByAssetClass.put(assetClass, new Semaphore(concurrency));
+            pendingByAssetClass.put(assetClass, new AtomicInteger());
+            log.info("Scrape concurrency for {} is {}", assetClass, concurrency);
+        }
+    }
+
+    /**
+     * Applies the action to every item and blocks until all of them are done.
+     */
+    public <T> void forEach(AssetClass assetClass, Collection<T> items, Consumer<T> action) {
+        Semaphore permits = permitsByAssetClass.get(assetClass);
+        AtomicInteger pending = pendingByAssetClass.get(assetClass);
+        List<Future<?>> futures = new ArrayList<>(items.size());
+
+        pending.addAndGet(items.size());
+        int submitted = 0;
+        try {
+            for (T item : items) {
+                permits.acquire();
+                try {
+                    futures.add(scrapeExecutorService.submit(() -> {
+                        try {
+                            action.accept(item);
+                        } finally {
+                            permits.release();
+                            pending.decrementAndGet();
+                        }
+                    }));
+                    submitted++;
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.warn("Scrape task for {} failed", assetClass, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(it -> it.cancel(true));
+            log.warn("Interrupted while scraping {}", assetClass);
+        } finally {
+            pending.addAndGet(submitted - items.size());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        pendingByAssetClass.forEach((assetClass, pending) ->
+                Gauge.builder("scrape.executor.pending", pending, AtomicInteger::get)
+                        .description("Scrape tasks queued or running")
+                        .tag("asset_class", assetClass.name().toLowerCase())
+                        .register(registry));
+    }
+}
@@ -0,0 +1,198 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.metrics.ScrapeMetrics;
+import id.taufiq.pd_scraper.model.AssetClass;
+import id.taufiq.pd_scraper.model.dao.CodeDateRange;
+import id.taufiq.pd_scraper.model.dao.ScrapeJob;
+import id.taufiq.pd_scraper.repository.ScrapeJobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Durable queue of per-key scrape windows backed by the {@code scrape_job} table.
+ * <p>
+ * Scrapers enqueue windows and drain them with workers on the scrape executor, each claiming one job at a time
+ * with {@code skip locked}. A failed job is retried with exponential backoff starting at
+ * {@code app.job.retry-interval}, unless its response could not be parsed, and jobs left running by a crashed
+ * worker are claimed again once their lock expires. Due retries are picked up by a periodic sweep, so they do
+ * not wait for the next cron run.
+ * <p>
+ * The sweep and the lock renewals each run on a thread of their own instead of the shared scheduling pool, where
+ * the cron syncs could starve them and let the locks of running jobs expire.
+ */
+@Slf4j
+@Component
+public class ScrapeJobQueue implements DisposableBean {
+
+    private static final Duration DONE_RETENTION = Duration.ofDays(7);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(30);
+    private static final Duration IN_FLIGHT_POLL_INTERVAL = Duration.ofSeconds(1);
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final ScrapeJobRepository scrapeJobRepository;
+    private final ScrapeExecutor scrapeExecutor;
+    private final ScrapeMetrics scrapeMetrics;
+    private final AppProperties appProperties;
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweepScheduler = singleThreadScheduler("job-sweep");
+    private final ScheduledExecutorService renewalScheduler = singleThreadScheduler("job-lock-renewal");
+
+    public ScrapeJobQueue(ScrapeJobRepository scrapeJobRepository, ScrapeExecutor scrapeExecutor,
+            ScrapeMetrics scrapeMetrics, AppProperties appProperties) {
+        this.scrapeJobRepository = scrapeJobRepository;
+        this.scrapeExecutor = scrapeExecutor;
+        this.scrapeMetrics = scrapeMetrics;
+        this.appProperties = appProperties;
+
+        long retryMillis = Math.max(1, appProperties.getJob().getRetryInterval().toMillis());
+        sweepScheduler.scheduleWithFixedDelay(this::drainDueJobs, retryMillis, retryMillis, TimeUnit.MILLISECONDS);
+        long renewMillis = Math.max(1, appProperties.getJob().getLease().toMillis() / 3);
+        renewalScheduler.scheduleWithFixedDelay(this::renewLocks, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void register(String series, AssetClass assetClass, Consumer<ScrapeJob> action) {
+        handlers.put(series, new Handler(assetClass, action));
+    }
+
+    public void enqueue(String series, List<CodeDateRange> windows) {
+        scrapeJobRepository.enqueue(series, windows);
+    }
+
+    public int retryFailed(String series, Collection<String> keys) {
+        return scrapeJobRepository.retryFailed(series, keys);
+    }
+
+    public int countPending(String series, Collection<String> keys) {
+        return scrapeJobRepository.countPending(series, keys);
+    }
+
+    /**
+     * Runs due jobs of the given series and keys until none are left, calling the listener after each finished
+     * attempt. Null keys drain the jobs of every key, which only the sweep does: a sync drains the keys of its own
+     * shard, so nodes do not take over each other's jobs.
+     * <p>
+     * A drain of given keys returns only once none of their jobs is running or due, so jobs the sweep claimed in
+     * the meantime have finished before the caller moves on to the stages reading their rows. A retry the sweep
+     * scheduled for later is left to the sweep.
+     */
+    public void drain(AssetClass assetClass, Collection<String> series, Collection<String> keys,
+            Consumer<ScrapeJob> listener) {
+        int workers = Math.max(1, appProperties.getScrapeConcurrency(assetClass));
+        do {
+            scrapeExecutor.forEach(assetClass, IntStream.range(0, workers).boxed().toList(), worker -> {
+                ScrapeJob job;
+                while ((job = scrapeJobRepository.claim(series, keys, workerId(), appProperties.getJob().getLease()))
+                        != null) {
+                    execute(job);
+                    listener.accept(job);
+                }
+            });
+        } while (keys != null && awaitInFlight(series, keys));
+    }
+
+    public void drain(AssetClass assetClass, Collection<String> series, Collection<String> keys) {
+        drain(assetClass, series, keys, job -> {
+        });
+    }
+
+    @Override
+    public void destroy() {
+        sweepScheduler.shutdownNow();
+        renewalScheduler.shutdownNow();
+    }
+
+    private void drainDueJobs() {
+        try {
+            Map<AssetClass, List<String>> seriesByAssetClass = handlers.entrySet().stream()
+                    .collect(Collectors.groupingBy(it -> it.getValue().assetClass(),
+                            Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+            seriesByAssetClass.forEach((assetClass, series) -> drain(assetClass, series, null));
+
+            int deleted = scrapeJobRepository.deleteDoneBefore(DONE_RETENTION);
+            if (deleted > 0) {
+                log.info("Deleted {} finished scrape jobs", deleted);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to drain due scrape jobs", e);
+        }
+    }
+
+    /**
+     * Waits a poll interval when jobs of the keys are still running or due, returning whether there were any.
+     */
+    private boolean awaitInFlight(Collection<String> series, Collection<String> keys) {
+        if (keys.isEmpty() || scrapeJobRepository.countInFlight(series, keys) == 0) {
+            return false;
+        }
+        try {
+            Thread.sleep(IN_FLIGHT_POLL_INTERVAL.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void renewLocks() {
+        try {
+            scrapeJobRepository.renewLocks(workerId(), appProperties.getJob().getLease());
+        } catch (Exception e) {
+            log.warn("Failed to renew scrape job locks", e);
+        }
+    }
+
+    private void execute(ScrapeJob job) {
+        Handler handler = handlers.get(job.getSeries());
+        try {
+            handler.action().accept(job);
+            scrapeJobRepository.complete(job.getId());
+        } catch (Exception e) {
+            log.warn("Failed to scrape {} for {} from {} to {}, attempt {}",
+                    job.getSeries(), job.getKey(), job.getStartDate(), job.getEndDate(), job.getAttempts(), e);
+            scrapeMetrics.recordFailure(job.getSeries());
+
+            String error = String.valueOf(e.getMessage());
+            error = error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+            if (job.getAttempts() >= appProperties.getJob().getMaxAttempts()
+                    || e instanceof PasardanaClient.MalformedResponseException) {
+                scrapeJobRepository.fail(job.getId(), error);
+            } else {
+                scrapeJobRepository.retryLater(job.getId(), error, retryDelay(job.getAttempts()));
+            }
+        }
+    }
+
+    private Duration retryDelay(int attempts) {
+        Duration delay = appProperties.getJob().getRetryInterval().multipliedBy(1L << Math.min(attempts - 1, 10));
+        return delay.compareTo(MAX_RETRY_DELAY) > 0 ? MAX_RETRY_DELAY : delay;
+    }
+
+    private String workerId() {
+        return appProperties.getCluster().getInstanceId();
+    }
+
+    private static ScheduledExecutorService singleThreadScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private record Handler(AssetClass assetClass, Consumer<ScrapeJob> action) {
+    }
+}
@@ -0,0 +1,102 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * Runs the configured startup sync in the background once the application is ready, so context startup
+ * does not wait for it. Progress is reported as the {@code startupSync} health component, which is out of
+ * service once the sync failed.
+ * <p>
+ * The sync runs on its own thread rather than on the scrape executor: it waits on the tasks it submits to
+ * that executor, and holding one of its workers while doing so could starve a small pool.
+ */
+@Slf4j
+@Component("startupSync")
+public class StartupSyncRunner implements HealthIndicator {
+
+    private final AppProperties appProperties;
+    private final StockScraperService stockScraperService;
+    private final BondScraperService bondScraperService;
+    private final FundScraperService fundScraperService;
+
+    private volatile State state = State.PENDING;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+    private volatile String error;
+
+    public StartupSyncRunner(AppProperties appProperties, StockScraperService stockScraperService,
+            BondScraperService bondScraperService, FundScraperService fundScraperService) {
+        this.appProperties = appProperties;
+        this.stockScraperService = stockScraperService;
+        this.bondScraperService = bondScraperService;
+        this.fundScraperService = fundScraperService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        AppProperties.StartupSync startupSync = appProperties.getStartupSync();
+        if (startupSync == AppProperties.StartupSync.NONE) {
+            state = State.DISABLED;
+            return;
+        }
+
+        Thread thread = new Thread(() -> run(startupSync), "startup-sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = Health.status(state == State.FAILED ? Status.OUT_OF_SERVICE : Status.UP)
+                .withDetail("mode", appProperties.getStartupSync())
+                .withDetail("state", state);
+        if (startedAt != null) {
+            builder.withDetail("startedAt", startedAt);
+        }
+        if (finishedAt != null) {
+            builder.withDetail("finishedAt", finishedAt);
+        }
+        if (error != null) {
+            builder.withDetail("error", error);
+        }
+        return builder.build();
+    }
+
+    private void run(AppProperties.StartupSync startupSync) {
+        log.info("Starting {} startup sync", startupSync);
+        startedAt = LocalDateTime.now();
+        state = State.RUNNING;
+        try {
+            bondScraperService.scrapeAll();
+            if (startupSync == AppProperties.StartupSync.ALL) {
+                stockScraperService.scrapeAll();
+                fundScraperService.scrapeAll();
+            }
+            state = State.COMPLETED;
+        } catch (Exception e) {
+            log.error("Startup sync failed", e);
+            error = e.getMessage();
+            state = State.FAILED;
+        } finally {
+            finishedAt = LocalDateTime.now();
+        }
+        log.info("Finished startup sync with state {}", state);
+    }
+
+    private enum State {
+        PENDING,
+        DISABLED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+}
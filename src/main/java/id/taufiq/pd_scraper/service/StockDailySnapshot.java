@@ -0,0 +1,398 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.repository.CustomRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Columnar copy of {@code stock_daily} in one memory-mapped file per stock code, for analytics that scan whole
+ * histories.
+ * <p>
+ * Each file holds a header followed by fixed-capacity columns of epoch day, open, high, low and close as ints
+ * and volume as long, sorted by date. Missing values are stored as {@link #MISSING_INT} and
+ * {@link #MISSING_LONG}. {@link #refresh()} runs after every stock daily sync. It skips codes whose sync
+ * watermark has not moved since the last refresh, reads the full history of codes without a file and otherwise
+ * only the rows of each code from its own last day onwards. Newer days are appended and the last day is
+ * overwritten, as it may have been re-synced.
+ * <p>
+ * Windows that are retried or re-queued can commit rows before a code's last day after the file moved past
+ * them. Every refresh compares the row count of each file with the rows of {@code stock_daily} up to its last
+ * day and rebuilds the file of a code that misses rows from its full history. Corrections to the values of older
+ * days still need a rebuild, done by deleting the directory. A file that runs out of capacity or is rebuilt is
+ * written next to the old one and swapped in, so readers holding the old mapping are not affected.
+ */
+@Slf4j
+@Component
+public class StockDailySnapshot implements InitializingBean {
+
+    public static final int MISSING_INT = Integer.MIN_VALUE;
+    public static final long MISSING_LONG = Long.MIN_VALUE;
+
+    private static final int MAGIC = 0x50445353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int INT_COLUMNS = 5;
+    private static final int INITIAL_CAPACITY = 512;
+    private static final String EXTENSION = ".col";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CustomRepository customRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final AppProperties appProperties;
+    private final Map<String, SeriesFile> files = new ConcurrentHashMap<>();
+    private final Map<String, LocalDate> refreshedThrough = new HashMap<>();
+
+    public StockDailySnapshot(JdbcTemplate jdbcTemplate, CustomRepository customRepository,
+            TransactionTemplate transactionTemplate, AppProperties appProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.customRepository = customRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.appProperties = appProperties;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!appProperties.getSnapshot().isEnabled()) {
+            return;
+        }
+
+        Path directory = directory();
+        Files.createDirectories(directory);
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : paths.filter(it -> it.getFileName().toString().endsWith(EXTENSION)).toList()) {
+                String fileName = path.getFileName().toString();
+                String code = URLDecoder.decode(fileName.substring(0, fileName.length() - EXTENSION.length()),
+                        StandardCharsets.UTF_8);
+                SeriesFile file = SeriesFile.open(path);
+                if (file != null) {
+                    files.put(code, file);
+                } else {
+                    log.warn("Ignoring unreadable snapshot file {}", path);
+                }
+            }
+        }
+        log.info("Loaded stock daily snapshot of {} codes from {}", files.size(), directory);
+    }
+
+    /**
+     * Brings the snapshot up to date with {@code stock_daily}.
+     */
+    public synchronized void refresh() {
+        if (!appProperties.getSnapshot().isEnabled()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Map<String, LocalDate> lastDatePerCode = customRepository.findAllStockDailyWatermarkPerCode();
+        Map<String, SeriesFile> rebuilds = new HashMap<>();
+        for (String code : findCodesMissingRows()) {
+            rebuilds.put(code, create(code, ".rebuild"));
+        }
+        List<String> codes = new ArrayList<>();
+        List<Date> sinceDates = new ArrayList<>();
+        int newCodes = 0;
+        for (Map.Entry<String, LocalDate> entry : lastDatePerCode.entrySet()) {
+            SeriesFile file = files.get(entry.getKey());
+            if (rebuilds.containsKey(entry.getKey())) {
+                codes.add(entry.getKey());
+                sinceDates.add(null);
+            } else if (file == null || file.count == 0) {
+                codes.add(entry.getKey());
+                sinceDates.add(null);
+                newCodes++;
+            } else if (!entry.getValue().equals(refreshedThrough.get(entry.getKey()))) {
+                codes.add(entry.getKey());
+                sinceDates.add(Date.valueOf(LocalDate.ofEpochDay(file.lastEpochDay())));
+            }
+        }
+        if (codes.isEmpty()) {
+            return;
+        }
+
+        String query = "select d.code, d.\"date\", d.opening_price, d.high_price, d.low_price, d.closing_price,"
+                + " d.volume from unnest(?::text[], ?::date[]) as s (code, since)"
+                + " join stock_daily d on d.code = s.code and (s.since is null or d.\"date\" >= s.since)"
+                + " order by d.code, d.\"date\"";
+        Set<SeriesFile> touched = new HashSet<>();
+        int[] rows = new int[1];
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(query);
+            ps.setFetchSize(10_000);
+            ps.setArray(1, con.createArrayOf("text", codes.toArray()));
+            ps.setArray(2, con.createArrayOf("date", sinceDates.toArray()));
+            return ps;
+        }, rs -> {
+            String code = rs.getString(1);
+            int epochDay = (int) rs.getDate(2).toLocalDate().toEpochDay();
+            SeriesFile file = rebuilds.containsKey(code)
+                    ? rebuilds.get(code)
+                    : files.computeIfAbsent(code, it -> create(it, ""));
+            if (file.append(epochDay, intOrMissing(rs.getObject(3)), intOrMissing(rs.getObject(4)),
+                    intOrMissing(rs.getObject(5)), intOrMissing(rs.getObject(6)), longOrMissing(rs.getObject(7)))) {
+                touched.add(file);
+                rows[0]++;
+            }
+        }));
+        codes.forEach(it -> refreshedThrough.put(it, lastDatePerCode.get(it)));
+        touched.forEach(it -> it.buffer.force());
+        rebuilds.forEach((code, file) -> {
+            file.buffer.force();
+            file.moveTo(path(code, ""));
+            files.put(code, file);
+        });
+
+        log.info("Refreshed stock daily snapshot with {} rows of {} codes, {} of them new and {} rebuilt, in {} ms",
+                rows[0], touched.size(), newCodes, rebuilds.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Returns a read-only view of the code's columns as of now, or null when the code is not in the snapshot.
+     */
+    public StockSeries findSeries(String code) {
+        SeriesFile file = files.get(code);
+        return file != null ? file.view() : null;
+    }
+
+    public Set<String> findAllCodes() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    /**
+     * Codes whose file holds fewer or more rows than {@code stock_daily} up to the last day of the file, which
+     * happens when rows before that day were committed after the file was refreshed past them.
+     */
+    private Set<String> findCodesMissingRows() {
+        List<String> codes = new ArrayList<>();
+        List<Date> lastDates = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        files.forEach((code, file) -> {
+            int count = file.count;
+            if (count > 0) {
+                codes.add(code);
+                lastDates.add(Date.valueOf(LocalDate.ofEpochDay(file.lastEpochDay())));
+                counts.add(count);
+            }
+        });
+        if (codes.isEmpty()) {
+            return Set.of();
+        }
+
+        String query = "select s.code from unnest(?::text[], ?::date[], ?::int[]) as s (code, last_date, row_count)"
+                + " where s.row_count <> (select count(*) from stock_daily d"
+                + " where d.code = s.code and d.\"date\" <= s.last_date)";
+        Set<String> result = new HashSet<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(query);
+            ps.setArray(1, con.createArrayOf("text", codes.toArray()));
+            ps.setArray(2, con.createArrayOf("date", lastDates.toArray()));
+            ps.setArray(3, con.createArrayOf("int4", counts.toArray()));
+            return ps;
+        }, rs -> {
+            result.add(rs.getString(1));
+        });
+        if (!result.isEmpty()) {
+            log.info("Rebuilding the stock daily snapshot of {} codes that received rows before their last day",
+                    result.size());
+        }
+        return result;
+    }
+
+    private SeriesFile create(String code, String suffix) {
+        Path path = path(code, suffix);
+        try {
+            return SeriesFile.create(path, INITIAL_CAPACITY);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create snapshot file " + path, e);
+        }
+    }
+
+    private Path path(String code, String suffix) {
+        return directory().resolve(URLEncoder.encode(code, StandardCharsets.UTF_8) + EXTENSION + suffix);
+    }
+
+    private Path directory() {
+        return Path.of(appProperties.getSnapshot().getDirectory());
+    }
+
+    private static int intOrMissing(Object value) {
+        return value instanceof Number number ? number.intValue() : MISSING_INT;
+    }
+
+    private static long longOrMissing(Object value) {
+        return value instanceof Number number ? number.longValue() : MISSING_LONG;
+    }
+
+    private static long fileSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * (INT_COLUMNS * Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Zero-copy view of one code's columns, all of {@link #size()} elements in date order.
+     */
+    public record StockSeries(int size, IntBuffer epochDays, IntBuffer open, IntBuffer high, IntBuffer low,
+                              IntBuffer close, LongBuffer volume) {
+    }
+
+    private static final class SeriesFile {
+
+        private Path path;
+        private MappedByteBuffer buffer;
+        private int capacity;
+        private volatile int count;
+
+        private SeriesFile(Path path, MappedByteBuffer buffer, int capacity, int count) {
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.count = count;
+        }
+
+        static SeriesFile create(Path path, int capacity) throws IOException {
+            MappedByteBuffer buffer = map(path, fileSize(capacity));
+            buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, 0).putInt(12, capacity);
+            return new SeriesFile(path, buffer, capacity, 0);
+        }
+
+        static SeriesFile open(Path path) throws IOException {
+            MappedByteBuffer buffer = map(path, Files.size(path));
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            int capacity = buffer.getInt(12);
+            int count = buffer.getInt(8);
+            if (buffer.capacity() < fileSize(capacity) || count > capacity) {
+                return null;
+            }
+            return new SeriesFile(path, buffer, capacity, count);
+        }
+
+        int lastEpochDay() {
+            return count > 0 ? buffer.getInt(HEADER_SIZE + (count - 1) * Integer.BYTES) : Integer.MIN_VALUE;
+        }
+
+        /**
+         * Appends a newer day or overwrites the last one, returning false for older days.
+         */
+        boolean append(int epochDay, int open, int high, int low, int close, long volume) {
+            int index = count;
+            if (index > 0) {
+                int lastEpochDay = lastEpochDay();
+                if (epochDay < lastEpochDay) {
+                    return false;
+                }
+                if (epochDay == lastEpochDay) {
+                    index--;
+                }
+            }
+            if (index == capacity) {
+                grow();
+            }
+
+            int[] values = {epochDay, open, high, low, close};
+            for (int column = 0; column < INT_COLUMNS; column++) {
+                buffer.putInt(intOffset(column, index), values[column]);
+            }
+            buffer.putLong(longOffset(index), volume);
+            if (index == count) {
+                buffer.putInt(8, index + 1);
+                count = index + 1;
+            }
+            return true;
+        }
+
+        /**
+         * Moves the file over {@code target}, replacing the file a previous mapping was read from.
+         */
+        void moveTo(Path target) {
+            try {
+                Files.move(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                path = target;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to move snapshot file " + path, e);
+            }
+        }
+
+        StockSeries view() {
+            int size = count;
+            MappedByteBuffer mapped = buffer;
+            return new StockSeries(size,
+                    slice(mapped, intOffset(0, 0), size * Integer.BYTES).asIntBuffer(),
+                    slice(mapped, intOffset(1, 0), size * Integer.BYTES).asIntBuffer(),
+                    slice(mapped, intOffset(2, 0), size * Integer.BYTES).asIntBuffer(),
+                    slice(mapped, intOffset(3, 0), size * Integer.BYTES).asIntBuffer(),
+                    slice(mapped, intOffset(4, 0), size * Integer.BYTES).asIntBuffer(),
+                    slice(mapped, longOffset(0), size * Long.BYTES).asLongBuffer());
+        }
+
+        private void grow() {
+            int newCapacity = capacity * 2;
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                MappedByteBuffer grown = map(temp, fileSize(newCapacity));
+                grown.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, count).putInt(12, newCapacity);
+                for (int column = 0; column < INT_COLUMNS; column++) {
+                    grown.put(HEADER_SIZE + column * newCapacity * Integer.BYTES,
+                            buffer, intOffset(column, 0), count * Integer.BYTES);
+                }
+                grown.put(HEADER_SIZE + INT_COLUMNS * newCapacity * Integer.BYTES,
+                        buffer, longOffset(0), count * Long.BYTES);
+                grown.force();
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                buffer = grown;
+                capacity = newCapacity;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to grow snapshot file " + path, e);
+            }
+        }
+
+        private int intOffset(int column, int index) {
+            return HEADER_SIZE + (column * capacity + index) * Integer.BYTES;
+        }
+
+        private int longOffset(int index) {
+            return HEADER_SIZE + INT_COLUMNS * capacity * Integer.BYTES + index * Long.BYTES;
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+            return buffer.slice(offset, length).asReadOnlyBuffer();
+        }
+
+        private static MappedByteBuffer map(Path path, long size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.model.dao.CodeDateRange;
+import id.taufiq.pd_scraper.model.entity.StockDaily;
+import id.taufiq.pd_scraper.model.entity.StockMetric;
+import id.taufiq.pd_scraper.repository.CustomRepository;
+import id.taufiq.pd_scraper.repository.DailyRowsWritten;
+import id.taufiq.pd_scraper.repository.StockMetricRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Post-ingest stage of the stock pipeline that keeps {@code stock_metric} and {@code market_metric} up to date.
+ * <p>
+ * Only stocks whose {@code stock_daily} watermark is ahead of their {@code stock_metric} watermark are processed,
+ * a few hundred at a time. For each batch the closing prices after the last metric are loaded together with the
+ * {@link #LOOKBACK_ROWS} prices before it, the new dates of every stock are computed in a parallel pass on a
+ * dedicated fork-join pool and the rows are written through the {@link DailyWriter}. Once all of them are
+ * committed the metric watermarks advance to the daily watermarks read at the start, so a stock whose new range
+ * held no prices is not picked up again. The exponential averages continue from the last stored metric, so they
+ * match a computation over the full history. Market aggregates are recomputed for every date from the oldest new
+ * metric on, {@link #MARKET_METRIC_BATCH_DAYS} days per statement.
+ * <p>
+ * Windows that are retried, re-queued or committed out of order can write prices at or before the metric
+ * watermark of a stock. Every {@code stock_daily} write records its earliest date in the same transaction, and a
+ * run first moves the metric watermark of such stocks back to their last metric before that date. Writes that
+ * commit during a run are left for the next one. Runs of several nodes take turns under an advisory lock.
+ */
+@Slf4j
+@Component
+public class StockMetricStage implements DisposableBean {
+
+    /**
+     * Closing prices loaded before the last metric, enough for the 50 trading day window.
+     */
+    private static final int LOOKBACK_ROWS = 50;
+    private static final int MARKET_METRIC_BATCH_DAYS = 366;
+    private static final int CODES_PER_BATCH = 200;
+    private static final int WEEK = 5;
+    private static final int MONTH = 21;
+    private static final int VOLATILITY_WINDOW = 20;
+
+    private final StockMetricRepository stockMetricRepository;
+    private final CustomRepository customRepository;
+    private final DailyWriter dailyWriter;
+    private final AppProperties appProperties;
+    private final ForkJoinPool pool;
+
+    public StockMetricStage(StockMetricRepository stockMetricRepository, CustomRepository customRepository,
+            DailyWriter dailyWriter, AppProperties appProperties) {
+        this.stockMetricRepository = stockMetricRepository;
+        this.customRepository = customRepository;
+        this.dailyWriter = dailyWriter;
+        this.appProperties = appProperties;
+        int parallelism = appProperties.getMetrics().getParallelism();
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Computes the metrics of every date synced since the last run.
+     */
+    public synchronized void run() {
+        if (!appProperties.getMetrics().isEnabled()) {
+            return;
+        }
+        stockMetricRepository.runExclusively(this::computeStaleMetrics);
+    }
+
+    @EventListener
+    void onDailyRowsWritten(DailyRowsWritten event) {
+        if (appProperties.getMetrics().isEnabled() && "stock_daily".equals(event.table())
+                && !event.changes().isEmpty()) {
+            stockMetricRepository.markWritten(event.changes().values());
+        }
+    }
+
+    private void computeStaleMetrics() {
+        long start = System.currentTimeMillis();
+        int rewound = stockMetricRepository.rewindWatermarks();
+        if (rewound > 0) {
+            log.info("Recomputing metrics of {} stocks that received prices at or before their last metric", rewound);
+        }
+        List<CodeDateRange> staleCodes = stockMetricRepository.findStaleCodes();
+        if (staleCodes.isEmpty()) {
+            log.debug("Stock metrics are up to date");
+            return;
+        }
+        log.info("Computing metrics of {} stocks", staleCodes.size());
+
+        int batchRows = Math.max(1, appProperties.getWriter().getBatchRows());
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        Map<String, LocalDate> lastDates = new HashMap<>();
+        LocalDate from = null;
+        LocalDate to = null;
+        int rows = 0;
+        for (int i = 0; i < staleCodes.size(); i += CODES_PER_BATCH) {
+            List<CodeDateRange> batch = staleCodes.subList(i, Math.min(i + CODES_PER_BATCH, staleCodes.size()));
+            batch.forEach(it -> lastDates.put(it.getCode(), it.getEndDate()));
+            Map<String, List<StockDaily>> pricesByCode = stockMetricRepository.findClosingPrices(batch, LOOKBACK_ROWS);
+            Map<String, StockMetric> lastMetrics = stockMetricRepository.findLastMetrics(batch);
+
+            List<StockMetric> metrics = pool.submit(() -> batch.parallelStream()
+                    .flatMap(it -> compute(pricesByCode.getOrDefault(it.getCode(), List.of()), it.getStartDate(),
+                            lastMetrics.get(it.getCode())).stream())
+                    .toList()).join();
+            if (metrics.isEmpty()) {
+                continue;
+            }
+
+            LocalDate batchFrom = metrics.stream().map(StockMetric::getDate).min(Comparator.naturalOrder()).get();
+            LocalDate batchTo = metrics.stream().map(StockMetric::getDate).max(Comparator.naturalOrder()).get();
+            from = from == null || batchFrom.isBefore(from) ? batchFrom : from;
+            to = to == null || batchTo.isAfter(to) ? batchTo : to;
+            rows += metrics.size();
+            metrics.forEach(it -> lastDates.merge(it.getCode(), it.getDate(),
+                    (a, b) -> a.isAfter(b) ? a : b));
+            for (int j = 0; j < metrics.size(); j += batchRows) {
+                writes.add(dailyWriter.submit(metrics.subList(j, Math.min(j + batchRows, metrics.size()))));
+            }
+        }
+        DailyWriter.awaitAll(writes);
+        customRepository.advanceWatermarks(StockMetric.class, lastDates);
+
+        int dates = 0;
+        for (LocalDate date = from; date != null && !date.isAfter(to); ) {
+            LocalDate next = date.plusDays(MARKET_METRIC_BATCH_DAYS);
+            dates += stockMetricRepository.upsertMarketMetrics(date, next);
+            date = next;
+        }
+        log.info("Computed {} stock metrics and {} market metrics in {} ms",
+                rows, dates, System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Computes the metrics of every price after {@code lastDate}, the earlier prices only fill the windows.
+     */
+    private static List<StockMetric> compute(List<StockDaily> prices, LocalDate lastDate, StockMetric last) {
+        int size = prices.size();
+        double[] close = new double[size];
+        Double[] returns = new Double[size];
+        int first = size;
+        for (int i = 0; i < size; i++) {
+            StockDaily price = prices.get(i);
+            close[i] = price.getClosingPrice();
+            returns[i] = i > 0 ? change(close[i - 1], close[i]) : null;
+            if (first == size && (lastDate == null || price.getDate().isAfter(lastDate))) {
+                first = i;
+            }
+        }
+
+        Double ema12 = last != null ? last.getEma12() : null;
+        Double ema26 = last != null ? last.getEma26() : null;
+        List<StockMetric> metrics = new ArrayList<>(size - first);
+        for (int i = first; i < size; i++) {
+            StockMetric metric = new StockMetric();
+            metric.setCode(prices.get(i).getCode());
+            metric.setDate(prices.get(i).getDate());
+            metric.setDailyReturn(returns[i]);
+            metric.setWeeklyReturn(i >= WEEK ? change(close[i - WEEK], close[i]) : null);
+            metric.setMonthlyReturn(i >= MONTH ? change(close[i - MONTH], close[i]) : null);
+            metric.setVolatility20(volatility(returns, i));
+            metric.setSma20(sma(close, i, 20));
+            metric.setSma50(sma(close, i, 50));
+            ema12 = ema(ema12, close, i, 12);
+            ema26 = ema(ema26, close, i, 26);
+            metric.setEma12(ema12);
+            metric.setEma26(ema26);
+            metrics.add(metric);
+        }
+        return metrics;
+    }
+
+    private static Double change(double from, double to) {
+        return from != 0 ? to / from - 1 : null;
+    }
+
+    private static Double sma(double[] close, int index, int window) {
+        if (index < window - 1) {
+            return null;
+        }
+        double sum = 0;
+        for (int i = index - window + 1; i <= index; i++) {
+            sum += close[i];
+        }
+        return sum / window;
+    }
+
+    /**
+     * Continues the average from the previous value, or seeds it with the simple average of the first window.
+     */
+    private static Double ema(Double previous, double[] close, int index, int window) {
+        if (previous == null) {
+            return sma(close, index, window);
+        }
+        return previous + 2.0 / (window + 1) * (close[index] - previous);
+    }
+
+    /**
+     * Sample standard deviation of the daily returns in the window ending at {@code index}.
+     */
+    private static Double volatility(Double[] returns, int index) {
+        if (index < VOLATILITY_WINDOW) {
+            return null;
+        }
+        double sum = 0;
+        double sumOfSquares = 0;
+        int count = 0;
+        for (int i = index - VOLATILITY_WINDOW + 1; i <= index; i++) {
+            if (returns[i] != null) {
+                sum += returns[i];
+                sumOfSquares += returns[i] * returns[i];
+                count++;
+            }
+        }
+        if (count < 2) {
+            return null;
+        }
+        double mean = sum / count;
+        return Math.sqrt(Math.max(0, (sumOfSquares - count * mean * mean) / (count - 1)));
+    }
+}
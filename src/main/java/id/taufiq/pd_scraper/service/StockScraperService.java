@@ -1,146 +1,133 @@
 package id.taufiq.pd_scraper.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import id.taufiq.pd_scraper.metrics.ScrapeMetrics;
+import id.taufiq.pd_scraper.model.AssetClass;
+import id.taufiq.pd_scraper.model.dao.ScrapeJob;
+import id.taufiq.pd_scraper.model.dao.UpsertCount;
 import id.taufiq.pd_scraper.model.entity.Stock;
 import id.taufiq.pd_scraper.model.entity.StockDaily;
 import id.taufiq.pd_scraper.repository.CustomRepository;
+import id.taufiq.pd_scraper.service.ClusterCoordinator.Shard;
+import id.taufiq.pd_scraper.service.MasterDataCache.MasterData;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
 
-import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
-
-import static java.util.stream.Collectors.toMap;
 
 @Slf4j
 @Service
 public class StockScraperService {
 
-    private static final String STOCK_SEARCH_ALL_URL = "https://pasardana.id/api/StockSearchResult/GetAll?pageBegin=1&pageLength=9000&sortField=Code&sortOrder=ASC";
-    private static final String STOCK_DATA_URL = "https://pasardana.id/api/StockAPI/GetStockData?code=%s&datestart=%s&dateend=%s";
-    
+    private static final String STOCK_SEARCH_ALL_URL = "/api/StockSearchResult/GetAll?pageBegin=1&pageLength=9000&sortField=Code&sortOrder=ASC";
+    private static final String STOCK_DATA_URL = "/api/StockAPI/GetStockData?code=%s&datestart=%s&dateend=%s";
+    private static final String STOCK_DAILY_SERIES = "stock_daily";
 
-    private final ObjectMapper objectMapper;
-    private final RestClient restClient;
+    private final PasardanaClient pasardanaClient;
     private final CustomRepository customRepository;
-
-    public StockScraperService(ObjectMapper objectMapper, RestClient restClient, CustomRepository customRepository) {
-        this.objectMapper = objectMapper;
-        this.restClient = restClient;
+    private final ScrapeMetrics scrapeMetrics;
+    private final BackfillPlanner backfillPlanner;
+    private final ScrapeJobQueue scrapeJobQueue;
+    private final ClusterCoordinator clusterCoordinator;
+    private final MasterDataCache masterDataCache;
+    private final DailyWriter dailyWriter;
+    private final StockDailySnapshot stockDailySnapshot;
+    private final StockMetricStage stockMetricStage;
+
+    public StockScraperService(PasardanaClient pasardanaClient, CustomRepository customRepository,
+            ScrapeMetrics scrapeMetrics, BackfillPlanner backfillPlanner, ScrapeJobQueue scrapeJobQueue,
+            ClusterCoordinator clusterCoordinator, MasterDataCache masterDataCache, DailyWriter dailyWriter,
+            StockDailySnapshot stockDailySnapshot, StockMetricStage stockMetricStage) {
+        this.pasardanaClient = pasardanaClient;
         this.customRepository = customRepository;
+        this.scrapeMetrics = scrapeMetrics;
+        this.backfillPlanner = backfillPlanner;
+        this.scrapeJobQueue = scrapeJobQueue;
+        this.clusterCoordinator = clusterCoordinator;
+        this.masterDataCache = masterDataCache;
+        this.dailyWriter = dailyWriter;
+        this.stockDailySnapshot = stockDailySnapshot;
+        this.stockMetricStage = stockMetricStage;
+        scrapeJobQueue.register(STOCK_DAILY_SERIES, AssetClass.STOCK, this::scrapeStockDailyJob);
     }
 
     @Scheduled(cron = "#{@appProperties.syncCron}")
-    private void scrapeAll() {
+    void scrapeAll() {
         LocalDateTime now = LocalDateTime.now();
-        scrapeStocks();
-        scrapeStockDaily(now);
+        clusterCoordinator.runSharded("stock", now, this::scrapeStocks, shard -> scrapeStockDaily(now, shard));
+        try {
+            stockDailySnapshot.refresh();
+        } catch (Exception e) {
+            log.error("Failed to refresh stock daily snapshot", e);
+        }
+        try {
+            stockMetricStage.run();
+        } catch (Exception e) {
+            log.error("Failed to compute stock metrics", e);
+        }
     }
 
     private void scrapeStocks() {
         log.info("Starting to scrape stocks");
         LocalDateTime startTime = LocalDateTime.now();
         try {
-            String getAll = get(STOCK_SEARCH_ALL_URL);
-            List<Stock> stocks = objectMapper.readValue(getAll, new TypeReference<>() {
-            });
-            log.info("Found {} stocks", stocks.size());
-
-            Set<String> allExistingStockCodes = customRepository.findAllExistingStockCodes();
-            log.info("Found {} existing stocks", allExistingStockCodes.size());
-
-            for (Stock stock : stocks) {
-                boolean exists = allExistingStockCodes.contains(stock.getCode());
-                if (exists) {
-                    log.debug("Updating stock {}", stock.getCode());
-                    customRepository.update(stock);
-                } else {
-                    log.debug("Inserting stock {}", stock.getCode());
-                    customRepository.insert(stock);
-                }
+            MasterData<Stock> stockList = masterDataCache.fetch("stocks", STOCK_SEARCH_ALL_URL, Stock.class,
+                    Stock::getCode);
+            if (stockList != null) {
+                List<Stock> stocks = stockList.items();
+                log.info("Found {} stocks", stocks.size());
+
+                UpsertCount count = customRepository.upsertStocks(stocks);
+                log.info("Inserted {}, updated {} and left {} stocks unchanged",
+                        count.getInserted(), count.getUpdated(), count.getUnchanged());
+                masterDataCache.commit(stockList);
             }
 
         } catch (Exception e) {
             log.error("Failed to process stock", e);
         }
-        logEndTime("stock", startTime);
+        scrapeMetrics.recordStage("stock", startTime);
     }
 
-    private void scrapeStockDaily(LocalDateTime startTime) {
+    private void scrapeStockDaily(LocalDateTime startTime, Shard shard) {
         log.info("Starting to scrape stock daily");
 
         try {
             Set<String> stockCodes = customRepository.findAllStockCodes();
-            Map<String, LocalDate> maxDatePerCodeMap = customRepository.findAllStockDailyMaxDatePerCode();
-
-            stockCodes.parallelStream().forEach(code -> {
-                try {
-                    LocalDate startDate = maxDatePerCodeMap
-                            .getOrDefault(code, LocalDate.of(1995, 1, 1))
-                            .plusDays(1);
-
-                    LocalDate endDate = startTime.toLocalDate().plusDays(1);
-                    log.debug("Scraping stock daily for code {} from {} to {}", code, startDate, endDate);
-                    String stockDataRaw = get(String.format(STOCK_DATA_URL, code, startDate, endDate));
-                    List<StockDaily> stockDailies = objectMapper.readValue(stockDataRaw, new TypeReference<>() {
-                    });
-
-                    List<StockDaily> uniqueStockDailies = new ArrayList<>(
-                            stockDailies.stream()
-                                    .collect(toMap(
-                                            sd -> sd.getCode() + "|" + sd.getDate(),
-                                            Function.identity(),
-                                            (existing, replacement) -> existing
-                                    ))
-                                    .values());
-
-                    uniqueStockDailies.forEach(it -> it.setCreatedAt(startTime.toLocalDate()));
-
-                    log.debug("Inserting {} stock daily data for code {}", uniqueStockDailies.size(), code);
-                    customRepository.insertAll(uniqueStockDailies);
-                } catch (Exception e) {
-                    log.warn("Failed to fetch stock daily for code {}", code);
-                }
-            });
+            stockCodes.removeIf(code -> !shard.owns(code));
+            Map<String, LocalDate> watermarkPerCode = customRepository.findAllStockDailyWatermarkPerCode();
+
+            LocalDate endDate = startTime.toLocalDate().plusDays(1);
+            backfillPlanner.plan(STOCK_DAILY_SERIES, stockCodes,
+                    code -> watermarkPerCode.getOrDefault(code, LocalDate.of(1995, 1, 1)).plusDays(1), endDate);
+            scrapeJobQueue.drain(AssetClass.STOCK, List.of(STOCK_DAILY_SERIES), stockCodes);
 
         } catch (Exception e) {
             log.error("Failed to process stock daily", e);
         }
-        logEndTime("stock daily", startTime);
-    }
-
-    private String get(String endpoint) {
-        ResponseEntity<byte[]> entity = restClient.get()
-                .uri(endpoint)
-                .retrieve()
-                .toEntity(byte[].class);
-
-        if (entity.getBody() == null) {
-            throw new RuntimeException();
-        }
-
-        return new String(entity.getBody(), StandardCharsets.UTF_8);
+        scrapeMetrics.recordStage("stock daily", startTime);
     }
 
-    private void logEndTime(String event, LocalDateTime startTime) {
-        LocalDateTime endTime = LocalDateTime.now();
-        Duration duration = Duration.between(startTime, endTime);
-
-        long minutes = duration.toMinutes();
-        long seconds = duration.minusMinutes(minutes).getSeconds();
-
-        log.info("Finished scraping {} with time spent: {} minutes {} seconds",
-                event, minutes, seconds);
+    private void scrapeStockDailyJob(ScrapeJob job) {
+        String code = job.getKey();
+        LocalDate createdAt = LocalDate.now();
+        log.debug("Scraping stock daily for code {} from {} to {}", code, job.getStartDate(), job.getEndDate());
+        String endpoint = String.format(STOCK_DATA_URL, code, job.getStartDate(), job.getEndDate());
+        DailyWriter.Window window = dailyWriter.window(StockDaily.class, code, job.getStartDate());
+        int total = pasardanaClient.fetchInChunks(endpoint, StockDaily.class, stockDailies -> {
+            List<StockDaily> uniqueStockDailies = customRepository.distinctByNaturalKey(stockDailies);
+
+            scrapeMetrics.recordDeduplicated(STOCK_DAILY_SERIES, stockDailies.size() - uniqueStockDailies.size());
+            uniqueStockDailies.forEach(it -> it.setCreatedAt(createdAt));
+
+            log.debug("Inserting {} stock daily data for code {}", uniqueStockDailies.size(), code);
+            window.submit(uniqueStockDailies);
+        });
+        window.commit(job.getEndDate());
+        log.debug("Fetched {} stock daily data for code {}", total, code);
     }
 }
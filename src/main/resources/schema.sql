@@ -96,17 +96,162 @@ CREATE TABLE IF NOT EXISTS public.fund_daily (
 --CREATE INDEX fund_daily_date_idx ON public.fund_daily USING btree (date);
 
 CREATE TABLE IF NOT EXISTS public.fund_aum (
-	id text NOT NULL,
+	id text DEFAULT gen_random_uuid() NOT NULL,
 	fund_id int2 NOT NULL,
 	value numeric NULL,
 	"date" date NOT NULL,
-	CONSTRAINT fund_nav_pk PRIMARY KEY (id)
+	CONSTRAINT fund_nav_pk PRIMARY KEY (id),
+	CONSTRAINT fund_aum_unique UNIQUE (fund_id, "date")
 );
 
+DELETE FROM public.fund_aum a USING public.fund_aum b
+WHERE a.fund_id = b.fund_id AND a."date" = b."date" AND a.ctid > b.ctid
+	AND NOT EXISTS (SELECT 1 FROM pg_indexes WHERE schemaname = 'public' AND indexname = 'fund_aum_unique');
+CREATE UNIQUE INDEX IF NOT EXISTS fund_aum_unique ON public.fund_aum USING btree (fund_id, "date");
+
 CREATE TABLE IF NOT EXISTS public.fund_unit (
-	id text NOT NULL,
+	id text DEFAULT gen_random_uuid() NOT NULL,
 	fund_id int2 NOT NULL,
 	value numeric NULL,
 	"date" date NOT NULL,
-	CONSTRAINT fund_unit_pk PRIMARY KEY (id)
+	CONSTRAINT fund_unit_pk PRIMARY KEY (id),
+	CONSTRAINT fund_unit_unique UNIQUE (fund_id, "date")
+);
+
+DELETE FROM public.fund_unit a USING public.fund_unit b
+WHERE a.fund_id = b.fund_id AND a."date" = b."date" AND a.ctid > b.ctid
+	AND NOT EXISTS (SELECT 1 FROM pg_indexes WHERE schemaname = 'public' AND indexname = 'fund_unit_unique');
+CREATE UNIQUE INDEX IF NOT EXISTS fund_unit_unique ON public.fund_unit USING btree (fund_id, "date");
+
+DO 'BEGIN
+	IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_schema = ''public''
+		AND table_name = ''sync_watermark'' AND column_name = ''asset_class'') THEN
+		ALTER TABLE public.sync_watermark RENAME COLUMN asset_class TO series;
+	END IF;
+END';
+
+CREATE TABLE IF NOT EXISTS public.sync_watermark (
+	series varchar NOT NULL,
+	"key" varchar NOT NULL,
+	last_date date NOT NULL,
+	last_synced_at timestamp NOT NULL,
+	CONSTRAINT sync_watermark_pk PRIMARY KEY (series, "key")
+);
+
+INSERT INTO public.sync_watermark (series, "key", last_date, last_synced_at)
+SELECT 'stock_daily', code, max("date"), now() FROM public.stock_daily
+WHERE NOT EXISTS (SELECT 1 FROM public.sync_watermark WHERE series = 'stock_daily')
+GROUP BY code;
+
+INSERT INTO public.sync_watermark (series, "key", last_date, last_synced_at)
+SELECT 'bond_daily', bond_code, max("date"), now() FROM public.bond_daily
+WHERE NOT EXISTS (SELECT 1 FROM public.sync_watermark WHERE series = 'bond_daily')
+GROUP BY bond_code;
+
+INSERT INTO public.sync_watermark (series, "key", last_date, last_synced_at)
+SELECT 'fund_daily', fund_id::varchar, max("date"), now() FROM public.fund_daily
+WHERE NOT EXISTS (SELECT 1 FROM public.sync_watermark WHERE series = 'fund_daily')
+GROUP BY fund_id;
+
+INSERT INTO public.sync_watermark (series, "key", last_date, last_synced_at)
+SELECT 'fund_aum', fund_id::varchar, max("date"), now() FROM public.fund_aum
+WHERE NOT EXISTS (SELECT 1 FROM public.sync_watermark WHERE series = 'fund_aum')
+GROUP BY fund_id;
+
+INSERT INTO public.sync_watermark (series, "key", last_date, last_synced_at)
+SELECT 'fund_unit', fund_id::varchar, max("date"), now() FROM public.fund_unit
+WHERE NOT EXISTS (SELECT 1 FROM public.sync_watermark WHERE series = 'fund_unit')
+GROUP BY fund_id;
+
+DO 'BEGIN
+	IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_schema = ''public''
+		AND table_name = ''scrape_job'' AND column_name = ''asset_class'') THEN
+		ALTER TABLE public.scrape_job RENAME COLUMN asset_class TO series;
+	END IF;
+END';
+
+CREATE TABLE IF NOT EXISTS public.scrape_job (
+	id bigserial NOT NULL,
+	series varchar NOT NULL,
+	"key" varchar NOT NULL,
+	start_date date NOT NULL,
+	end_date date NOT NULL,
+	status varchar NOT NULL,
+	attempts int4 NOT NULL,
+	last_error text NULL,
+	next_attempt_at timestamp NOT NULL,
+	locked_by varchar NULL,
+	locked_until timestamp NULL,
+	created_at timestamp NOT NULL,
+	updated_at timestamp NOT NULL,
+	CONSTRAINT scrape_job_pk PRIMARY KEY (id),
+	CONSTRAINT scrape_job_unique UNIQUE (series, "key", start_date, end_date)
+);
+
+CREATE INDEX IF NOT EXISTS scrape_job_due_idx ON public.scrape_job (series, next_attempt_at)
+WHERE status IN ('PENDING', 'RUNNING');
+
+CREATE TABLE IF NOT EXISTS public.sync_run (
+	sync_name varchar NOT NULL,
+	run_id varchar NOT NULL,
+	coordinator varchar NOT NULL,
+	shard_count int4 NULL,
+	created_at timestamp NOT NULL,
+	CONSTRAINT sync_run_pk PRIMARY KEY (sync_name, run_id)
+);
+
+ALTER TABLE public.sync_run ADD COLUMN IF NOT EXISTS coordinator_until timestamp NULL;
+
+CREATE TABLE IF NOT EXISTS public.sync_shard (
+	sync_name varchar NOT NULL,
+	run_id varchar NOT NULL,
+	shard int4 NOT NULL,
+	status varchar NOT NULL,
+	"owner" varchar NULL,
+	lease_until timestamp NULL,
+	attempts int4 NOT NULL,
+	CONSTRAINT sync_shard_pk PRIMARY KEY (sync_name, run_id, shard)
+);
+
+CREATE TABLE IF NOT EXISTS public.fetch_cache (
+	endpoint varchar NOT NULL,
+	etag varchar NULL,
+	last_modified varchar NULL,
+	content_hash varchar NULL,
+	updated_at timestamp NOT NULL,
+	CONSTRAINT fetch_cache_pk PRIMARY KEY (endpoint)
+);
+
+ALTER TABLE public.fetch_cache ADD COLUMN IF NOT EXISTS context_hash varchar NULL;
+
+CREATE TABLE IF NOT EXISTS public.entity_hash (
+	entity varchar NOT NULL,
+	"key" varchar NOT NULL,
+	hash varchar NOT NULL,
+	updated_at timestamp NOT NULL,
+	CONSTRAINT entity_hash_pk PRIMARY KEY (entity, "key")
+);
+
+CREATE TABLE IF NOT EXISTS public.stock_metric (
+	code varchar NOT NULL,
+	"date" date NOT NULL,
+	daily_return float8 NULL,
+	weekly_return float8 NULL,
+	monthly_return float8 NULL,
+	volatility20 float8 NULL,
+	sma20 float8 NULL,
+	sma50 float8 NULL,
+	ema12 float8 NULL,
+	ema26 float8 NULL,
+	CONSTRAINT stock_metric_unique PRIMARY KEY (code, "date")
+);
+
+CREATE TABLE IF NOT EXISTS public.market_metric (
+	"date" date NOT NULL,
+	stock_count int4 NOT NULL,
+	advancers int4 NOT NULL,
+	decliners int4 NOT NULL,
+	total_market_cap int8 NULL,
+	cap_weighted_return float8 NULL,
+	CONSTRAINT market_metric_pk PRIMARY KEY ("date")
 );
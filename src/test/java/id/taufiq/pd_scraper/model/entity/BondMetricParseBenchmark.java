@@ -0,0 +1,178 @@
+package id.taufiq.pd_scraper.model.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of a {@code GetBondDataAddition} response of 1000 rows into {@link BondDaily}, whose returns,
+ * yields and durations are exact BigDecimals, against a copy of its numeric fields that reads those metrics as
+ * Doubles. The same row shape is also parsed into a copy that keeps them BigDecimal, so the two copies differ
+ * in the metric types only.
+ * <p>
+ * Run with {@code mvn test-compile} followed by
+ * {@code java -cp target/test-classes:target/classes:<test classpath> org.openjdk.jmh.Main BondMetricParse},
+ * adding {@code -prof gc} to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BondMetricParseBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        LocalDate start = LocalDate.of(2020, 1, 1);
+        List<Map<String, Object>> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            SplittableRandom random = new SplittableRandom(i);
+            double price = 90 + random.nextDouble() * 20;
+            Map<String, Object> additional = new LinkedHashMap<>();
+            additional.put("Wap", price);
+            additional.put("Ttm", 1 + random.nextDouble() * 9);
+            additional.put("Ytm", 0.04 + random.nextDouble() * 0.04);
+            additional.put("CurrentYield", 0.04 + random.nextDouble() * 0.04);
+            additional.put("ModifiedDuration", random.nextDouble() * 8);
+            additional.put("OutstandingAmount", random.nextLong(10_000_000_000_000L));
+
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("BondCode", "FR0001");
+            row.put("IsTransacted", random.nextBoolean());
+            row.put("Date", start.plusDays(i).atStartOfDay().toString());
+            row.put("DateBased", start.plusDays(i).atStartOfDay().toString());
+            row.put("HighPrice", price + 1);
+            row.put("LowPrice", price - 1);
+            row.put("LastPrice", price);
+            row.put("Wap", price);
+            row.put("TotalVol", random.nextInt(1_000_000_000));
+            row.put("TotalVal", random.nextInt(1_000_000_000));
+            row.put("Freq", random.nextInt(100));
+            for (String field : List.of("OneDayReturn", "OneWeekReturn", "MtdReturn", "OneMonthReturn",
+                    "ThreeMonthReturn", "SixMonthReturn", "YtdReturn", "OneYearReturn", "ThreeYearReturn",
+                    "FiveYearReturn", "TenYearReturn", "InceptionReturn")) {
+                row.put(field, random.nextGaussian() * 0.05);
+            }
+            row.put("AdditionalData", additional);
+            rows.add(row);
+        }
+        response = objectMapper.writeValueAsBytes(rows);
+    }
+
+    @Benchmark
+    public List<BondDaily> bondDaily() throws IOException {
+        return objectMapper.readValue(response, new TypeReference<>() {});
+    }
+
+    @Benchmark
+    public List<ExactRow> exactMetrics() throws IOException {
+        return objectMapper.readValue(response, new TypeReference<>() {});
+    }
+
+    @Benchmark
+    public List<DoubleRow> doubleMetrics() throws IOException {
+        return objectMapper.readValue(response, new TypeReference<>() {});
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BondMetricParseBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ExactRow {
+        @JsonProperty("HighPrice") public BigDecimal highPrice;
+        @JsonProperty("LowPrice") public BigDecimal lowPrice;
+        @JsonProperty("LastPrice") public BigDecimal lastPrice;
+        @JsonProperty("Wap") public BigDecimal wap;
+        @JsonProperty("TotalVol") public BigDecimal totalVol;
+        @JsonProperty("TotalVal") public BigDecimal totalVal;
+        @JsonProperty("Freq") public BigDecimal freq;
+        @JsonProperty("OneDayReturn") public BigDecimal oneDayReturn;
+        @JsonProperty("OneWeekReturn") public BigDecimal oneWeekReturn;
+        @JsonProperty("MtdReturn") public BigDecimal mtdReturn;
+        @JsonProperty("OneMonthReturn") public BigDecimal oneMonthReturn;
+        @JsonProperty("ThreeMonthReturn") public BigDecimal threeMonthReturn;
+        @JsonProperty("SixMonthReturn") public BigDecimal sixMonthReturn;
+        @JsonProperty("YtdReturn") public BigDecimal ytdReturn;
+        @JsonProperty("OneYearReturn") public BigDecimal oneYearReturn;
+        @JsonProperty("ThreeYearReturn") public BigDecimal threeYearReturn;
+        @JsonProperty("FiveYearReturn") public BigDecimal fiveYearReturn;
+        @JsonProperty("TenYearReturn") public BigDecimal tenYearReturn;
+        @JsonProperty("InceptionReturn") public BigDecimal inceptionReturn;
+        @JsonProperty("AdditionalData") public ExactAdditionalData additionalData;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ExactAdditionalData {
+        @JsonProperty("Wap") public BigDecimal wap;
+        @JsonProperty("Ttm") public BigDecimal ttm;
+        @JsonProperty("Ytm") public BigDecimal ytm;
+        @JsonProperty("CurrentYield") public BigDecimal currentYield;
+        @JsonProperty("ModifiedDuration") public BigDecimal modifiedDuration;
+        @JsonProperty("OutstandingAmount") public BigDecimal outstandingAmount;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class DoubleRow {
+        @JsonProperty("HighPrice") public BigDecimal highPrice;
+        @JsonProperty("LowPrice") public BigDecimal lowPrice;
+        @JsonProperty("LastPrice") public BigDecimal lastPrice;
+        @JsonProperty("Wap") public BigDecimal wap;
+        @JsonProperty("TotalVol") public BigDecimal totalVol;
+        @JsonProperty("TotalVal") public BigDecimal totalVal;
+        @JsonProperty("Freq") public BigDecimal freq;
+        @JsonProperty("OneDayReturn") public Double oneDayReturn;
+        @JsonProperty("OneWeekReturn") public Double oneWeekReturn;
+        @JsonProperty("MtdReturn") public Double mtdReturn;
+        @JsonProperty("OneMonthReturn") public Double oneMonthReturn;
+        @JsonProperty("ThreeMonthReturn") public Double threeMonthReturn;
+        @JsonProperty("SixMonthReturn") public Double sixMonthReturn;
+        @JsonProperty("YtdReturn") public Double ytdReturn;
+        @JsonProperty("OneYearReturn") public Double oneYearReturn;
+        @JsonProperty("ThreeYearReturn") public Double threeYearReturn;
+        @JsonProperty("FiveYearReturn") public Double fiveYearReturn;
+        @JsonProperty("TenYearReturn") public Double tenYearReturn;
+        @JsonProperty("InceptionReturn") public Double inceptionReturn;
+        @JsonProperty("AdditionalData") public DoubleAdditionalData additionalData;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class DoubleAdditionalData {
+        @JsonProperty("Wap") public BigDecimal wap;
+        @JsonProperty("Ttm") public Double ttm;
+        @JsonProperty("Ytm") public Double ytm;
+        @JsonProperty("CurrentYield") public Double currentYield;
+        @JsonProperty("ModifiedDuration") public Double modifiedDuration;
+        @JsonProperty("OutstandingAmount") public BigDecimal outstandingAmount;
+    }
+}
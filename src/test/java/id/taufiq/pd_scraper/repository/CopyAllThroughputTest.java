@@ -0,0 +1,84 @@
+package id.taufiq.pd_scraper.repository;
+
+import id.taufiq.pd_scraper.PostgresIntegrationTest;
+import id.taufiq.pd_scraper.model.entity.StockDaily;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Throughput of the COPY bulk load against the per-row {@code insertAll} path it replaced, on the same
+ * stock daily rows written into an empty table.
+ */
+@Slf4j
+class CopyAllThroughputTest extends PostgresIntegrationTest {
+
+    private static final int CODES = 100;
+    private static final int DAYS = 500;
+
+    @Autowired
+    private CustomRepository customRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void truncate() {
+        jdbcTemplate.execute("truncate stock_daily, sync_watermark");
+    }
+
+    @Test
+    void copyAllOutpacesInsertAll() {
+        // warm up both paths so the comparison does not include class loading and statement preparation
+        rowsPerSecond(customRepository::insertAll, stockDailies(5, 20));
+        rowsPerSecond(customRepository::copyAll, stockDailies(5, 20));
+
+        double insertRate = rowsPerSecond(customRepository::insertAll, stockDailies(CODES, DAYS));
+        double copyRate = rowsPerSecond(customRepository::copyAll, stockDailies(CODES, DAYS));
+        log.info("Wrote {} stock daily rows, insertAll {} rows/s, copyAll {} rows/s",
+                CODES * DAYS, Math.round(insertRate), Math.round(copyRate));
+
+        assertThat(copyRate).isGreaterThan(insertRate);
+    }
+
+    private double rowsPerSecond(Consumer<List<StockDaily>> write, List<StockDaily> rows) {
+        truncate();
+        long start = System.nanoTime();
+        write.accept(rows);
+        long elapsedNanos = System.nanoTime() - start;
+
+        Integer count = jdbcTemplate.queryForObject("select count(*) from stock_daily", Integer.class);
+        assertThat(count).isEqualTo(rows.size());
+        return rows.size() / (Math.max(1, elapsedNanos) / 1e9);
+    }
+
+    private static List<StockDaily> stockDailies(int codes, int days) {
+        LocalDate start = LocalDate.of(2020, 1, 1);
+        List<StockDaily> rows = new ArrayList<>(codes * days);
+        for (int code = 0; code < codes; code++) {
+            for (int day = 0; day < days; day++) {
+                StockDaily row = new StockDaily();
+                row.setCode(String.format("S%03d", code));
+                row.setDate(start.plusDays(day));
+                row.setOpeningPrice(1000 + day);
+                row.setClosingPrice(1010 + day);
+                row.setHighPrice(1020 + day);
+                row.setLowPrice(990 + day);
+                row.setVolume(1_000_000L + day);
+                row.setMarketCap(1_000_000_000L * (code + 1));
+                row.setCreatedAt(start);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}
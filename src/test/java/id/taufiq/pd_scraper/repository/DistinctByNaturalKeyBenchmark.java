@@ -0,0 +1,92 @@
+package id.taufiq.pd_scraper.repository;
+
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.model.entity.StockDaily;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.jdbc.core.mapping.JdbcMappingContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Deduplication of a fetched stock daily chunk by {@link CustomRepository#distinctByNaturalKey(List)} against the
+ * {@code code + "|" + date} string keys collected into a map that it replaced. About 5% of the rows repeat an
+ * earlier key.
+ * <p>
+ * Run with {@code mvn test-compile} followed by
+ * {@code java -cp target/test-classes:target/classes:<test classpath> org.openjdk.jmh.Main DistinctByNaturalKey},
+ * adding {@code -prof gc} to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistinctByNaturalKeyBenchmark {
+
+    @Param({"5000", "100000"})
+    private int rows;
+
+    private CustomRepository customRepository;
+    private List<StockDaily> stockDailies;
+
+    @Setup
+    public void setUp() {
+        customRepository = new CustomRepository(null, null, new JdbcMappingContext(), new AppProperties(), null, null);
+
+        Random random = new Random(42);
+        LocalDate start = LocalDate.of(1995, 1, 1);
+        int codes = Math.max(1, rows / 1000);
+        stockDailies = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            StockDaily row = new StockDaily();
+            int day = random.nextInt(20) == 0 && i > 0 ? random.nextInt(Math.max(1, i / codes)) : i / codes;
+            row.setCode(String.format("S%03d", i % codes));
+            row.setDate(start.plusDays(day));
+            row.setClosingPrice(1000 + i % 500);
+            stockDailies.add(row);
+        }
+        Collections.shuffle(stockDailies, random);
+    }
+
+    @Benchmark
+    public List<StockDaily> stringKeys() {
+        return new ArrayList<>(stockDailies.stream()
+                .collect(toMap(
+                        sd -> sd.getCode() + "|" + sd.getDate(),
+                        Function.identity(),
+                        (existing, replacement) -> existing
+                ))
+                .values());
+    }
+
+    @Benchmark
+    public List<StockDaily> packedKeys() {
+        return customRepository.distinctByNaturalKey(stockDailies);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DistinctByNaturalKeyBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,74 @@
+package id.taufiq.pd_scraper.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LongHashSetTest {
+
+    @Test
+    void addsEachKeyOnce() {
+        LongHashSet set = new LongHashSet(4);
+
+        assertThat(set.add(1)).isTrue();
+        assertThat(set.add(-1)).isTrue();
+        assertThat(set.add(Long.MAX_VALUE)).isTrue();
+        assertThat(set.add(1)).isFalse();
+        assertThat(set.add(Long.MAX_VALUE)).isFalse();
+        assertThat(set.size()).isEqualTo(3);
+    }
+
+    @Test
+    void growsPastTheExpectedSize() {
+        LongHashSet set = new LongHashSet(2);
+        for (long key = 1; key <= 10_000; key++) {
+            assertThat(set.add(key)).isTrue();
+        }
+
+        for (long key = 1; key <= 10_000; key++) {
+            assertThat(set.add(key)).as("key %d after resizing", key).isFalse();
+        }
+        assertThat(set.size()).isEqualTo(10_000);
+    }
+
+    @Test
+    void probesPastCollidingKeys() {
+        // the high and low halves of every key xor to the same value, so all of them hash to the same slot
+        LongHashSet set = new LongHashSet(8);
+        for (long i = 1; i <= 100; i++) {
+            assertThat(set.add(i << 32 | (i ^ 5))).isTrue();
+        }
+
+        for (long i = 1; i <= 100; i++) {
+            assertThat(set.add(i << 32 | (i ^ 5))).isFalse();
+        }
+        assertThat(set.add(101L << 32 | 7)).isTrue();
+        assertThat(set.size()).isEqualTo(101);
+    }
+
+    @Test
+    void matchesHashSetOnPackedKeys() {
+        SplittableRandom random = new SplittableRandom(42);
+        LongHashSet set = new LongHashSet(16);
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 50_000; i++) {
+            long codeId = 1 + random.nextInt(500);
+            long key = codeId << 32 | random.nextInt(20_000);
+            assertThat(set.add(key)).isEqualTo(expected.add(key));
+        }
+        assertThat(set.size()).isEqualTo(expected.size());
+    }
+
+    @Test
+    void rejectsZero() {
+        LongHashSet set = new LongHashSet(4);
+
+        assertThatThrownBy(() -> set.add(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(set.size()).isZero();
+    }
+}
@@ -0,0 +1,119 @@
+package id.taufiq.pd_scraper.repository;
+
+import id.taufiq.pd_scraper.PostgresIntegrationTest;
+import id.taufiq.pd_scraper.config.AppProperties;
+import id.taufiq.pd_scraper.config.AppProperties.StorageProfile;
+import id.taufiq.pd_scraper.model.entity.BondDaily;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Table size and COPY insert rate of the same bond daily rows under the {@code numeric} and {@code compact}
+ * storage profiles.
+ */
+@Slf4j
+class StorageProfileFootprintTest extends PostgresIntegrationTest {
+
+    private static final int CODES = 50;
+    private static final int DAYS = 1000;
+
+    @Autowired
+    private CustomRepository customRepository;
+
+    @Autowired
+    private StorageProfileMigration storageProfileMigration;
+
+    @Autowired
+    private AppProperties appProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void restoreProfile() {
+        jdbcTemplate.execute("truncate bond_daily, sync_watermark");
+        appProperties.setStorageProfile(StorageProfile.NUMERIC);
+        storageProfileMigration.afterPropertiesSet();
+    }
+
+    @Test
+    void compactProfileShrinksBondDaily() {
+        List<BondDaily> rows = bondDailies(CODES, DAYS);
+        // warm up the copy path so the first measured profile does not pay for class loading
+        load(StorageProfile.NUMERIC, bondDailies(5, 20));
+
+        double numericRate = load(StorageProfile.NUMERIC, rows);
+        long numericBytes = tableBytes();
+        double compactRate = load(StorageProfile.COMPACT, rows);
+        long compactBytes = tableBytes();
+        log.info("Copied {} bond daily rows, numeric {} rows/s and {} kB, compact {} rows/s and {} kB",
+                rows.size(), Math.round(numericRate), numericBytes / 1024, Math.round(compactRate),
+                compactBytes / 1024);
+
+        assertThat(compactBytes).isLessThan(numericBytes);
+    }
+
+    private double load(StorageProfile profile, List<BondDaily> rows) {
+        jdbcTemplate.execute("truncate bond_daily, sync_watermark");
+        appProperties.setStorageProfile(profile);
+        storageProfileMigration.afterPropertiesSet();
+
+        long start = System.nanoTime();
+        customRepository.copyAll(rows);
+        long elapsedNanos = System.nanoTime() - start;
+
+        jdbcTemplate.execute("vacuum analyze bond_daily");
+        Integer count = jdbcTemplate.queryForObject("select count(*) from bond_daily", Integer.class);
+        assertThat(count).isEqualTo(rows.size());
+        return rows.size() / (Math.max(1, elapsedNanos) / 1e9);
+    }
+
+    private long tableBytes() {
+        return jdbcTemplate.queryForObject("select pg_table_size('bond_daily')", Long.class);
+    }
+
+    private static List<BondDaily> bondDailies(int codes, int days) {
+        LocalDate start = LocalDate.of(2020, 1, 1);
+        List<BondDaily> rows = new ArrayList<>(codes * days);
+        for (int code = 0; code < codes; code++) {
+            for (int day = 0; day < days; day++) {
+                SplittableRandom random = new SplittableRandom(31L * code + day);
+                BigDecimal price = BigDecimal.valueOf(90 + random.nextDouble() * 20);
+                BondDaily row = new BondDaily();
+                row.setBondCode(String.format("SIMB%03d", code));
+                row.setDate(start.plusDays(day));
+                row.setLastPrice(price);
+                row.setWap(price);
+                row.setOneDayReturn(BigDecimal.valueOf(random.nextGaussian() * 0.01));
+                row.setOneWeekReturn(BigDecimal.valueOf(random.nextGaussian() * 0.02));
+                row.setMtdReturn(BigDecimal.valueOf(random.nextGaussian() * 0.03));
+                row.setOneMonthReturn(BigDecimal.valueOf(random.nextGaussian() * 0.03));
+                row.setThreeMonthReturn(BigDecimal.valueOf(random.nextGaussian() * 0.05));
+                row.setSixMonthReturn(BigDecimal.valueOf(random.nextGaussian() * 0.07));
+                row.setYtdReturn(BigDecimal.valueOf(random.nextGaussian() * 0.05));
+                row.setOneYearReturn(BigDecimal.valueOf(random.nextGaussian() * 0.1));
+                row.setThreeYearReturn(BigDecimal.valueOf(random.nextGaussian() * 0.2));
+                row.setFiveYearReturn(BigDecimal.valueOf(random.nextGaussian() * 0.3));
+                row.setTenYearReturn(BigDecimal.valueOf(random.nextGaussian() * 0.5));
+                row.setInceptionReturn(BigDecimal.valueOf(random.nextGaussian() * 0.5));
+                row.setTtm(BigDecimal.valueOf(1 + random.nextDouble() * 9));
+                row.setYtm(BigDecimal.valueOf(0.04 + random.nextDouble() * 0.04));
+                row.setCurrentYield(BigDecimal.valueOf(0.04 + random.nextDouble() * 0.04));
+                row.setModifiedDuration(BigDecimal.valueOf(random.nextDouble() * 8));
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,332 @@
+package id.taufiq.pd_scraper.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Stand-in for the Pasardana API on a local port, so syncs can be load tested without touching pasardana.id.
+ * <p>
+ * Every endpoint the scrapers call answers after the configured latency plus jitter, and fails with 503 at the
+ * configured error rate. Master data is served from {@code <endpoint>.json} in the recordings directory when
+ * present, and daily series from {@code <endpoint>/<code or fund id>.json} there, trimmed to the requested
+ * window. Everything else is generated: the configured number of stocks, bonds and funds, each with one row per
+ * weekday from the history start on. Generated values are a deterministic function of the code and date, so
+ * repeated windows return identical rows.
+ */
+@Slf4j
+public class PasardanaStub implements AutoCloseable {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int stocks;
+    private final int bonds;
+    private final int funds;
+    private final LocalDate historyStart;
+    private final Duration latency;
+    private final Duration latencyJitter;
+    private final double errorRate;
+    private final Path recordings;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public PasardanaStub(int stocks, int bonds, int funds, LocalDate historyStart, Duration latency,
+            Duration latencyJitter, double errorRate, Path recordings) {
+        this.stocks = stocks;
+        this.bonds = bonds;
+        this.funds = funds;
+        this.historyStart = historyStart;
+        this.latency = latency;
+        this.latencyJitter = latencyJitter;
+        this.errorRate = errorRate;
+        this.recordings = recordings;
+        try {
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start the Pasardana stub", e);
+        }
+        this.executor = Executors.newCachedThreadPool();
+
+        master("/api/StockSearchResult/GetAll", "GetAll", () -> items(stocks, i -> {
+            Map<String, Object> stock = new LinkedHashMap<>();
+            stock.put("Code", stockCode(i));
+            stock.put("Name", "Simulated Stock " + i);
+            return stock;
+        }));
+        daily("/api/StockAPI/GetStockData", "GetStockData", "code", "datestart", "dateend",
+                code -> code, (code, random, date) -> {
+                    int close = 1000 + random.nextInt(9000);
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("Code", code);
+                    row.put("OpeningPrice", close - random.nextInt(50));
+                    row.put("ClosingPrice", close);
+                    row.put("HighPrice", close + random.nextInt(100));
+                    row.put("LowPrice", close - 50 - random.nextInt(100));
+                    row.put("Volume", random.nextLong(100_000_000L));
+                    row.put("MarketCap", close * 1_000_000_000L);
+                    row.put("Date", date.toString());
+                    return row;
+                });
+        master("/api/BondAPI/GetBondProfile", "GetBondProfile", () -> items(bonds, i -> {
+            Map<String, Object> bond = new LinkedHashMap<>();
+            bond.put("Code", bondCode(i));
+            bond.put("IsinCode", "IDSIM" + String.format("%07d", i));
+            bond.put("Name", "Simulated Bond " + i);
+            bond.put("Type", i % 2 == 0 ? "Government" : "Corporate");
+            bond.put("BondId", i);
+            bond.put("InterestRate", 5 + i % 5);
+            bond.put("InterestType", "Fixed");
+            bond.put("InterestFrequencyCode", "Q");
+            bond.put("InterestFrequency", "Quarterly");
+            bond.put("IssueDate", historyStart.atStartOfDay().toString());
+            bond.put("ListingDate", historyStart.atStartOfDay().toString());
+            bond.put("MatureDate", historyStart.plusYears(10).atStartOfDay().toString());
+            bond.put("Sharia", i % 3 == 0);
+            return bond;
+        }));
+        master("/api/bondAPI/GetBondsId", "GetBondsId", () -> items(bonds, i -> {
+            Map<String, Object> bondId = new LinkedHashMap<>();
+            bondId.put("BondId", i);
+            bondId.put("BondCode", bondCode(i));
+            return bondId;
+        }));
+        daily("/api/BondAPI/GetBondDataAddition", "GetBondDataAddition", "code", "datestart", "dateend",
+                code -> code, (code, random, date) -> {
+                    double price = 90 + random.nextDouble() * 20;
+                    Map<String, Object> additional = new LinkedHashMap<>();
+                    additional.put("Wap", price);
+                    additional.put("Ttm", 1 + random.nextDouble() * 9);
+                    additional.put("Ytm", 0.04 + random.nextDouble() * 0.04);
+                    additional.put("CurrentYield", 0.04 + random.nextDouble() * 0.04);
+                    additional.put("ModifiedDuration", random.nextDouble() * 8);
+                    additional.put("OutstandingAmount", random.nextLong(10_000_000_000_000L));
+
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("BondCode", code);
+                    row.put("IsTransacted", random.nextBoolean());
+                    row.put("Date", date.atStartOfDay().toString());
+                    row.put("DateBased", date.atStartOfDay().toString());
+                    row.put("HighPrice", price + 1);
+                    row.put("LowPrice", price - 1);
+                    row.put("LastPrice", price);
+                    row.put("Wap", price);
+                    row.put("TotalVol", random.nextInt(1_000_000_000));
+                    row.put("TotalVal", random.nextInt(1_000_000_000));
+                    row.put("Freq", random.nextInt(100));
+                    row.put("OneDayReturn", random.nextGaussian() * 0.01);
+                    row.put("OneMonthReturn", random.nextGaussian() * 0.03);
+                    row.put("YtdReturn", random.nextGaussian() * 0.05);
+                    row.put("AdditionalData", additional);
+                    return row;
+                });
+        master("/api/FundAPI/SearchFund", "SearchFund", () -> items(funds, i -> {
+            Map<String, Object> fund = new LinkedHashMap<>();
+            fund.put("Id", i);
+            fund.put("Name", "Simulated Fund " + i);
+            fund.put("Type", i % 4 + 1);
+            fund.put("IsActive", true);
+            fund.put("Sharia", i % 3 == 0);
+            return fund;
+        }));
+        daily("/api/FundAPI/GetFundNAVHistoricData", "GetFundNAVHistoricData", "fundId", "dateBegin", "dateEnd",
+                fundId -> "nav" + fundId, (fundId, random, date) -> {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("FundId", Integer.valueOf(fundId));
+                    row.put("Value", 1000 + random.nextDouble() * 4000);
+                    row.put("DailyReturn", random.nextGaussian() * 0.01);
+                    row.put("Date", date.toString());
+                    return row;
+                });
+        daily("/api/FundAPI/GetFundAUMHistoricData", "GetFundAUMHistoricData", "fundId", "dateBegin", "dateEnd",
+                fundId -> "aum" + fundId, PasardanaStub::fundValue);
+        daily("/api/FundAPI/GetFundUPHistoricData", "GetFundUPHistoricData", "fundId", "dateBegin", "dateEnd",
+                fundId -> "unit" + fundId, PasardanaStub::fundValue);
+
+        server.setExecutor(executor);
+        server.start();
+        log.info("Stubbing Pasardana on {} with {} stocks, {} bonds and {} funds from {}",
+                baseUrl(), stocks, bonds, funds, historyStart);
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void master(String path, String endpoint, ListSupplier rows) {
+        server.createContext(path, exchange -> handle(exchange, endpoint, query -> {
+            Path recording = recording(endpoint + ".json");
+            return recording != null ? objectMapper.readValue(recording.toFile(), new TypeReference<>() {}) : rows.get();
+        }));
+    }
+
+    /**
+     * Serves the rows of one code or fund id within the requested window, from its recording when there is one.
+     */
+    private void daily(String path, String endpoint, String keyParameter, String fromParameter, String toParameter,
+            Function<String, String> series, RowGenerator row) {
+        server.createContext(path, exchange -> handle(exchange, endpoint, query -> {
+            String key = query.get(keyParameter);
+            LocalDate from = LocalDate.parse(query.get(fromParameter));
+            LocalDate to = LocalDate.parse(query.get(toParameter));
+            Path recording = recording(endpoint + "/" + key + ".json");
+            if (recording != null) {
+                List<Map<String, Object>> recorded = objectMapper.readValue(recording.toFile(), new TypeReference<>() {});
+                return recorded.stream().filter(it -> {
+                    LocalDate date = LocalDate.parse(String.valueOf(it.get("Date")).substring(0, 10));
+                    return !date.isBefore(from) && !date.isAfter(to);
+                }).toList();
+            }
+            return generate(series.apply(key), from, to, (random, date) -> row.generate(key, random, date));
+        }));
+    }
+
+    /**
+     * Delays and possibly fails the request, then writes the rows as a JSON array.
+     */
+    private void handle(HttpExchange exchange, String endpoint, RowSource rows) throws IOException {
+        try (exchange) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delayMillis = latency.toMillis();
+            long jitterMillis = latencyJitter.toMillis();
+            if (jitterMillis > 0) {
+                delayMillis += random.nextLong(jitterMillis + 1);
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            if (random.nextDouble() < errorRate) {
+                log.debug("Simulated failure of {}", endpoint);
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            byte[] body;
+            try {
+                body = objectMapper.writeValueAsBytes(rows.get(query(exchange)));
+            } catch (RuntimeException e) {
+                log.warn("Failed to serve {}", exchange.getRequestURI(), e);
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private Path recording(String name) {
+        if (recordings == null) {
+            return null;
+        }
+        Path path = recordings.resolve(name);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    /**
+     * One row per weekday of the requested window that lies within the simulated history.
+     */
+    private List<Map<String, Object>> generate(String series, LocalDate from, LocalDate to,
+            BiFunction<SplittableRandom, LocalDate, Map<String, Object>> row) {
+        LocalDate start = from.isBefore(historyStart) ? historyStart : from;
+        LocalDate end = to.isAfter(LocalDate.now()) ? LocalDate.now() : to;
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+            if (date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY) {
+                result.add(row.apply(new SplittableRandom(31L * series.hashCode() + date.toEpochDay()), date));
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Object> fundValue(String fundId, SplittableRandom random, LocalDate date) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("FundId", Integer.valueOf(fundId));
+        row.put("Value", random.nextLong(1_000_000_000_000L));
+        row.put("Date", date.toString());
+        return row;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> result = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return result;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                result.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    private static List<Map<String, Object>> items(int count, IntFunction<Map<String, Object>> item) {
+        List<Map<String, Object>> result = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            result.add(item.apply(i));
+        }
+        return result;
+    }
+
+    private static String stockCode(int i) {
+        return String.format("S%03d", i);
+    }
+
+    private static String bondCode(int i) {
+        return String.format("SIMB%03d", i);
+    }
+
+    @FunctionalInterface
+    private interface ListSupplier {
+        List<Map<String, Object>> get() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RowSource {
+        List<Map<String, Object>> get(Map<String, String> query) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RowGenerator {
+        Map<String, Object> generate(String key, SplittableRandom random, LocalDate date);
+    }
+}
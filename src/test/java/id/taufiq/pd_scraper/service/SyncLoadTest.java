@@ -0,0 +1,132 @@
+package id.taufiq.pd_scraper.service;
+
+import id.taufiq.pd_scraper.PostgresIntegrationTest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * End-to-end load test of the stock, bond and fund syncs against a {@link PasardanaStub}.
+ * <p>
+ * The three {@code scrapeAll} flows run one after another. Each flow reports its duration and the rows per second
+ * written to every daily table, followed by the p99 latency of every Pasardana endpoint and daily table write
+ * taken from the scrape meters. The size of the stubbed market is small by default and scales through the
+ * {@code load.stocks}, {@code load.bonds}, {@code load.funds}, {@code load.history-start}, {@code load.latency},
+ * {@code load.latency-jitter}, {@code load.error-rate} and {@code load.recordings} system properties, the
+ * durations in ISO-8601 form.
+ */
+@Slf4j
+class SyncLoadTest extends PostgresIntegrationTest {
+
+    private static final PasardanaStub PASARDANA = new PasardanaStub(
+            Integer.getInteger("load.stocks", 20),
+            Integer.getInteger("load.bonds", 10),
+            Integer.getInteger("load.funds", 10),
+            LocalDate.parse(System.getProperty("load.history-start", LocalDate.now().minusYears(1).toString())),
+            Duration.parse(System.getProperty("load.latency", "PT0.005S")),
+            Duration.parse(System.getProperty("load.latency-jitter", "PT0.005S")),
+            Double.parseDouble(System.getProperty("load.error-rate", "0.01")),
+            System.getProperty("load.recordings") != null ? Path.of(System.getProperty("load.recordings")) : null);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private StockScraperService stockScraperService;
+
+    @Autowired
+    private BondScraperService bondScraperService;
+
+    @Autowired
+    private FundScraperService fundScraperService;
+
+    @DynamicPropertySource
+    static void pasardana(DynamicPropertyRegistry registry) {
+        registry.add("app.pasardana-base-url", PASARDANA::baseUrl);
+    }
+
+    @AfterAll
+    static void stopPasardana() {
+        PASARDANA.close();
+    }
+
+    @Test
+    void syncsTheStubbedMarket() {
+        runFlow("bond", bondScraperService::scrapeAll);
+        runFlow("stock", stockScraperService::scrapeAll);
+        runFlow("fund", fundScraperService::scrapeAll);
+        reportPercentiles("pasardana.http.requests");
+        reportPercentiles("scrape.db.write");
+
+        assertThat(rowsWrittenPerTable()).containsKeys("stock_daily", "bond_daily", "fund_daily");
+    }
+
+    private void runFlow(String name, Runnable flow) {
+        Map<String, Double> before = rowsWrittenPerTable();
+        long start = System.nanoTime();
+        flow.run();
+        long elapsedNanos = System.nanoTime() - start;
+
+        double seconds = Math.max(1, elapsedNanos) / 1e9;
+        log.info("Load test: {} sync took {} ms", name, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        rowsWrittenPerTable().forEach((table, rows) -> {
+            double written = rows - before.getOrDefault(table, 0.0);
+            if (written > 0) {
+                log.info("Load test: {} sync wrote {} rows to {}, {} rows/s",
+                        name, (long) written, table, Math.round(written / seconds));
+            }
+        });
+    }
+
+    private Map<String, Double> rowsWrittenPerTable() {
+        Map<String, Double> result = new TreeMap<>();
+        for (Counter counter : meterRegistry.find("scrape.rows.written").counters()) {
+            result.merge(counter.getId().getTag("table"), counter.count(), Double::sum);
+        }
+        return result;
+    }
+
+    /**
+     * Logs the p99 of every timer of the meter, read from the upper bound of the histogram bucket the 99th
+     * percentile falls into.
+     */
+    private void reportPercentiles(String meter) {
+        for (Timer timer : meterRegistry.find(meter).timers()) {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            if (snapshot.count() == 0) {
+                continue;
+            }
+
+            double p99 = Double.NaN;
+            for (CountAtBucket bucket : snapshot.histogramCounts()) {
+                if (bucket.count() >= snapshot.count() * 0.99) {
+                    p99 = bucket.bucket(TimeUnit.MILLISECONDS);
+                    break;
+                }
+            }
+            if (Double.isNaN(p99)) {
+                p99 = snapshot.max(TimeUnit.MILLISECONDS);
+            }
+            log.info("Load test: {} {} count={} mean={} ms p99<={} ms",
+                    meter, timer.getId().getTags(), snapshot.count(),
+                    Math.round(snapshot.mean(TimeUnit.MILLISECONDS)), Math.round(p99));
+        }
+    }
+}